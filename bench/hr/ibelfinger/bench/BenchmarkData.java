@@ -0,0 +1,27 @@
+package hr.ibelfinger.bench;
+
+import hr.ibelfinger.LocationConfig;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.SyntheticBookings;
+
+final class BenchmarkData {
+    private static final long SEED = 42;
+    private static final double CNF_RATIO = 0.04;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * LocationConfig for its 100 bookings, seeded synthetic bookings in the same area for anything else.
+     */
+    static LocationStore bookings(int count) {
+        if(count == 100) {
+            return LocationStore.of(LocationConfig.locations());
+        }
+        return new SyntheticBookings(SEED, CNF_RATIO).store(count);
+    }
+
+    static void loadNativeLibrary() {
+        System.loadLibrary("jniortools");
+    }
+}
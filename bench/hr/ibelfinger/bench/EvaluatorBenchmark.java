@@ -0,0 +1,83 @@
+package hr.ibelfinger.bench;
+
+import com.google.ortools.constraintsolver.NodeEvaluator2;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.evaluators.CapacityEvaluator;
+import hr.ibelfinger.evaluators.MatrixEvaluator;
+import hr.ibelfinger.evaluators.StraightLineEvaluator;
+import hr.ibelfinger.matrix.ArrayDistanceMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the callbacks the routing search makes for every arc, called here from Java with random
+ * node pairs. Matrix evaluator at 10k bookings needs a heap of about 2GB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EvaluatorBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({"100", "1000", "10000"})
+    public int bookings;
+
+    private NodeEvaluator2 straightLineEvaluator;
+    private NodeEvaluator2 capacityEvaluator;
+    private NodeEvaluator2 matrixEvaluator;
+    private int[] fromIndices;
+    private int[] toIndices;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.loadNativeLibrary();
+        final LocationStore locations = BenchmarkData.bookings(bookings);
+        straightLineEvaluator = new StraightLineEvaluator(locations);
+        capacityEvaluator = new CapacityEvaluator(locations);
+        matrixEvaluator = new MatrixEvaluator(ArrayDistanceMatrix.straightLine(locations));
+
+        final Random random = new Random(7);
+        fromIndices = new int[PAIRS];
+        toIndices = new int[PAIRS];
+        for(int i = 0; i < PAIRS; i++) {
+            fromIndices[i] = random.nextInt(locations.size());
+            toIndices[i] = random.nextInt(locations.size());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public long straightLine() {
+        return runAll(straightLineEvaluator);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public long capacity() {
+        return runAll(capacityEvaluator);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public long matrix() {
+        return runAll(matrixEvaluator);
+    }
+
+    private long runAll(NodeEvaluator2 evaluator) {
+        long sum = 0;
+        for(int i = 0; i < PAIRS; i++) {
+            sum += evaluator.run(fromIndices[i], toIndices[i]);
+        }
+        return sum;
+    }
+}
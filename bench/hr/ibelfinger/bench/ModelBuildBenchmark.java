@@ -0,0 +1,53 @@
+package hr.ibelfinger.bench;
+
+import hr.ibelfinger.FleetSizeEstimator;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.PoolingModel;
+import hr.ibelfinger.matrix.ArrayDistanceMatrix;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the distance matrix and the PoolingModel, dimensions and pickup/dropoff constraints included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ModelBuildBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int bookings;
+
+    private LocationStore locations;
+    private DistanceMatrix distanceMatrix;
+    private int numberOfVehicles;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.loadNativeLibrary();
+        locations = BenchmarkData.bookings(bookings);
+        distanceMatrix = ArrayDistanceMatrix.straightLine(locations);
+        numberOfVehicles = FleetSizeEstimator.estimate(locations, distanceMatrix);
+    }
+
+    @Benchmark
+    public DistanceMatrix distanceMatrix() {
+        return ArrayDistanceMatrix.straightLine(locations);
+    }
+
+    @Benchmark
+    public PoolingModel poolingModel() {
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix, numberOfVehicles);
+        poolingModel.getModel().closeModel();
+        return poolingModel;
+    }
+}
@@ -0,0 +1,80 @@
+package hr.ibelfinger.bench;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.PoolingModel;
+import hr.ibelfinger.ResultPrinter;
+import hr.ibelfinger.RouteTable;
+import hr.ibelfinger.matrix.ArrayDistanceMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading routes out of an assignment and formatting them. The plan is built once in setup: every booking
+ * gets its own vehicle, so setup doesn't depend on the solver finding anything at 10k bookings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResultPrinterBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int bookings;
+
+    private LocationStore locations;
+    private PoolingModel poolingModel;
+    private Assignment solution;
+    private RouteTable routes;
+    private PrintStream sink;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.loadNativeLibrary();
+        locations = BenchmarkData.bookings(bookings);
+        poolingModel = PoolingModel.build(locations, ArrayDistanceMatrix.straightLine(locations), bookings);
+
+        final int[][] singleBookingRoutes = new int[bookings][];
+        for(int booking = 0; booking < bookings; booking++) {
+            singleBookingRoutes[booking] = new int[]{booking * 2 + 1, booking * 2 + 2};
+        }
+        final RoutingModel model = poolingModel.getModel();
+        model.CloseModelWithParameters(RoutingSearchParameters.newBuilder()
+                .mergeFrom(RoutingModel.defaultSearchParameters())
+                .setFirstSolutionStrategy(FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC)
+                .build());
+        solution = model.ReadAssignmentFromRoutes(singleBookingRoutes, true);
+        routes = RouteTable.extract(poolingModel.getNumberOfVehicles(), model, solution, locations);
+        sink = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    @Benchmark
+    public RouteTable extract() {
+        return RouteTable.extract(poolingModel.getNumberOfVehicles(), poolingModel.getModel(), solution, locations);
+    }
+
+    @Benchmark
+    public void format() {
+        ResultPrinter.print(routes, locations, sink).join();
+    }
+}
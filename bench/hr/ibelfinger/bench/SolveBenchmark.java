@@ -0,0 +1,71 @@
+package hr.ibelfinger.bench;
+
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import hr.ibelfinger.ArcPruning;
+import hr.ibelfinger.FleetSizeEstimator;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.NearestNeighbourPruning;
+import hr.ibelfinger.ShareabilityGraph;
+import hr.ibelfinger.matrix.ArrayDistanceMatrix;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end solve, model construction and fleet growth included, same as PoolingVRP's default mode without
+ * printing: FleetSizeEstimator.solve with the shareability graph and, with neighbours above 0, nearest
+ * neighbour pruning. Like PoolingVRP there is no time limit, the search ends at its first local optimum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SolveBenchmark {
+
+    @Param({"100", "1000"})
+    public int bookings;
+
+    @Param({"GLOBAL_CHEAPEST_ARC", "PARALLEL_CHEAPEST_INSERTION"})
+    public String strategy;
+
+    @Param({"0", "20"})
+    public int neighbours;
+
+    private LocationStore locations;
+    private DistanceMatrix distanceMatrix;
+    private ArcPruning[] arcPrunings;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.loadNativeLibrary();
+        locations = BenchmarkData.bookings(bookings);
+        distanceMatrix = ArrayDistanceMatrix.straightLine(locations);
+        final ShareabilityGraph shareabilityGraph = ShareabilityGraph.compute(locations, distanceMatrix);
+        arcPrunings = neighbours > 0
+                ? new ArcPruning[] {shareabilityGraph, new NearestNeighbourPruning(neighbours)}
+                : new ArcPruning[] {shareabilityGraph};
+    }
+
+    /**
+     * Objective of the solution, -1 if not even one vehicle per booking gave one.
+     */
+    @Benchmark
+    public long solve() {
+        final FleetSizeEstimator.Solved solved = FleetSizeEstimator.solve(locations, distanceMatrix,
+                FirstSolutionStrategy.Value.valueOf(strategy), arcPrunings);
+        return solved != null ? solved.getSolution().objectiveValue() : -1;
+    }
+}
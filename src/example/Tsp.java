@@ -21,6 +21,7 @@ import com.google.ortools.constraintsolver.NodeEvaluator2;
 import com.google.ortools.constraintsolver.RoutingModel;
 import com.google.ortools.constraintsolver.FirstSolutionStrategy;
 import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.NearestNeighbourPruning;
 
 class Tsp {
   static {
@@ -55,16 +56,27 @@ class Tsp {
     }
   }
 
-  static void solve(int size, int forbidden, int seed) {
+  static void solve(int size, int forbidden, int seed, int neighbours) {
     RoutingModel routing = new RoutingModel(size, 1, 0);
 
     // Setting the cost function.
     // Put a permanent callback to the distance accessor here. The callback
     // has the following signature: ResultCallback2<int64, int64, int64>.
     // The two arguments are the from and to node inidices.
-    NodeEvaluator2 distances = new RandomManhattan(size, seed);
+    RandomManhattan distances = new RandomManhattan(size, seed);
     routing.setArcCostEvaluatorOfAllVehicles(distances);
 
+    // Keep only arcs to the nearest nodes.
+    if (neighbours > 0) {
+      double[] xs = new double[size];
+      double[] ys = new double[size];
+      for (int i = 0; i < size; ++i) {
+        xs[i] = distances.xs[i];
+        ys[i] = distances.ys[i];
+      }
+      NearestNeighbourPruning.prune(routing, xs, ys, neighbours, 0);
+    }
+
     // Forbid node connections (randomly).
     Random randomizer = new Random();
     long forbidden_connections = 0;
@@ -119,6 +131,11 @@ class Tsp {
       seed = Integer.parseInt(args[2]);
     }
 
-    solve(size, forbidden, seed);
+    int neighbours = 0;
+    if (args.length > 3) {
+      neighbours = Integer.parseInt(args[3]);
+    }
+
+    solve(size, forbidden, seed, neighbours);
   }
 }
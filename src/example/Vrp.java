@@ -19,6 +19,7 @@ import com.google.ortools.constraintsolver.RoutingDimension;
 import com.google.ortools.constraintsolver.RoutingSearchParameters;
 import com.google.ortools.constraintsolver.FirstSolutionStrategy;
 import com.google.ortools.constraintsolver.Assignment;
+import hr.ibelfinger.ConvergenceMonitor;
 
 class DataProblem {
   private int[][] locations_;
@@ -125,7 +126,7 @@ class Vrp {
   }
 
   /// @brief Solves the current routing problem.
-  static void solve() {
+  static void solve(int plateauMillis) {
     // Instantiate the data problem.
     DataProblem data = new DataProblem();
 
@@ -146,12 +147,27 @@ class Vrp {
             .setFirstSolutionStrategy(FirstSolutionStrategy.Value.PATH_CHEAPEST_ARC)
             .build();
 
+    // Stop once the objective improves by less than 0.1% within the plateau window.
+    ConvergenceMonitor convergenceMonitor = null;
+    if (plateauMillis > 0) {
+      convergenceMonitor = new ConvergenceMonitor(plateauMillis, 0.001);
+      convergenceMonitor.attach(routing);
+    }
+
     Assignment solution = routing.solveWithParameters(search_parameters);
+    if (convergenceMonitor != null) {
+      System.out.println("Objective over time : " + convergenceMonitor.getImprovements());
+    }
     printSolution(data, routing, solution);
   }
 
   /// @brief Entry point of the program.
   public static void main(String[] args) throws Exception {
-    solve();
+    int plateauMillis = 0;
+    if (args.length > 0) {
+      plateauMillis = Integer.parseInt(args[0]);
+    }
+
+    solve(plateauMillis);
   }
 }
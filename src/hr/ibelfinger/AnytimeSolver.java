@@ -0,0 +1,93 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.LocalSearchMetaheuristic;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Solves within a deadline and comes back with the best plan found by then. Greedy descent stops at the
+ * first local optimum, metaheuristics like GUIDED_LOCAL_SEARCH keep improving until the time or solution limit,
+ * so each caller picks how much latency to trade for quality.
+ * <p>
+ * CheapestInsertion builds the first solution in plain Java before the solver starts and fixes the fleet size.
+ * It gets half of the time limit, for many bookings that isn't enough and the first solution strategy builds the
+ * first solution with one vehicle per booking instead. Either way the first solution is the answer if the search
+ * finds nothing better before the deadline.
+ */
+public class AnytimeSolver {
+    private final FirstSolutionStrategy.Value firstSolutionStrategy;
+    private final LocalSearchMetaheuristic.Value metaheuristic;
+    private final long timeLimitMillis;
+    private final long solutionLimit;
+
+    /**
+     * The first solution strategy is only used if the construction runs out of time or the model doesn't take
+     * the constructed routes, a solution limit of 0 means no limit.
+     */
+    public AnytimeSolver(FirstSolutionStrategy.Value firstSolutionStrategy, LocalSearchMetaheuristic.Value metaheuristic,
+                         long timeLimitMillis, long solutionLimit) {
+        if(timeLimitMillis <= 0 || solutionLimit < 0) {
+            throw new IllegalArgumentException("Expected positive time limit and non negative solution limit, got "
+                    + timeLimitMillis + " ms and " + solutionLimit);
+        }
+        this.firstSolutionStrategy = firstSolutionStrategy;
+        this.metaheuristic = metaheuristic;
+        this.timeLimitMillis = timeLimitMillis;
+        this.solutionLimit = solutionLimit;
+    }
+
+    /**
+     * The deadline is timeLimitMillis from this call. Returns null if there is no solution at all, or if the
+     * first solution strategy didn't find one before the deadline.
+     */
+    public FleetSizeEstimator.Solved solve(LocationStore locations, DistanceMatrix distanceMatrix,
+                                           ArcPruning... arcPrunings) {
+        final long startMillis = System.currentTimeMillis();
+        final long deadlineMillis = startMillis + timeLimitMillis;
+        final long constructionDeadlineMillis = startMillis + timeLimitMillis / 2;
+        final int bookings = Math.max(1, FleetSizeEstimator.countBookings(locations));
+        final int[][] constructed = CheapestInsertion.construct(locations, distanceMatrix, bookings,
+                ForkJoinPool.commonPool(), constructionDeadlineMillis);
+        if(constructed == null && System.currentTimeMillis() < constructionDeadlineMillis) {
+            return null;
+        }
+        // without constructed routes the first solution strategy starts from scratch
+        final int[][] routes = constructed == null || constructed.length > 0 ? constructed : new int[][]{new int[0]};
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix,
+                routes != null ? routes.length : bookings, arcPrunings);
+        final RoutingModel model = poolingModel.getModel();
+        model.CloseModelWithParameters(searchParameters(deadlineMillis));
+
+        final Assignment initialSolution = routes != null ? model.ReadAssignmentFromRoutes(routes, true) : null;
+        // the solve frees the assignment read from the routes, the copy is what is left if the search finds nothing
+        final Assignment constructedSolution = initialSolution != null
+                ? model.solver().makeAssignment(initialSolution)
+                : null;
+        if(constructedSolution != null && System.currentTimeMillis() >= deadlineMillis) {
+            return new FleetSizeEstimator.Solved(poolingModel, constructedSolution);
+        }
+        // limits are set per solve, so building and closing the model count against the deadline
+        final Assignment solution = poolingModel.solveFromAssignment(initialSolution, searchParameters(deadlineMillis));
+        if(solution != null) {
+            return new FleetSizeEstimator.Solved(poolingModel, solution);
+        }
+        return constructedSolution != null ? new FleetSizeEstimator.Solved(poolingModel, constructedSolution) : null;
+    }
+
+    private RoutingSearchParameters searchParameters(long deadlineMillis) {
+        final RoutingSearchParameters.Builder builder = RoutingSearchParameters.newBuilder()
+                .mergeFrom(RoutingModel.defaultSearchParameters())
+                .setFirstSolutionStrategy(firstSolutionStrategy)
+                .setLocalSearchMetaheuristic(metaheuristic)
+                .setTimeLimitMs(Math.max(1, deadlineMillis - System.currentTimeMillis()));
+        if(solutionLimit > 0) {
+            builder.setSolutionLimit(solutionLimit);
+        }
+        return builder.build();
+    }
+}
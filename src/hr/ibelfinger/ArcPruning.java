@@ -0,0 +1,12 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.RoutingModel;
+
+/**
+ * Removes arcs that can't be part of a good (or any) solution from next variables of the model
+ * before it is solved.
+ */
+public interface ArcPruning {
+
+    void apply(RoutingModel model, LocationStore locations);
+}
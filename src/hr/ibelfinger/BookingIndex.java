@@ -0,0 +1,82 @@
+package hr.ibelfinger;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps (bookingId, locationType) to the position of the location in the list it was built from.
+ * Open addressing over primitive arrays, so lookups don't box and the index is built in one pass.
+ */
+public class BookingIndex {
+    public static final int NOT_FOUND = -1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    BookingIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public static BookingIndex of(List<Location> locations) {
+        final BookingIndex index = new BookingIndex(locations.size());
+        for(int i = 0; i < locations.size(); i++) {
+            final Location location = locations.get(i);
+            index.putIfAbsent(location.getBookingId(), location.getLocationType(), i);
+        }
+        return index;
+    }
+
+    public static BookingIndex of(LocationStore locations) {
+        final BookingIndex index = new BookingIndex(locations.size());
+        for(int i = 0; i < locations.size(); i++) {
+            index.putIfAbsent(locations.getBookingId(i), locations.getLocationType(i), i);
+        }
+        return index;
+    }
+
+    /**
+     * Returns position of the location or NOT_FOUND. When the same booking and type appear twice,
+     * the first position wins, same as LocationUtils.findLocationIndex.
+     */
+    public int indexOf(int bookingId, Location.LocationType locationType) {
+        final long key = key(bookingId, locationType);
+        for(int slot = slot(key); ; slot = (slot + 1) & mask) {
+            final long slotKey = keys[slot];
+            if(slotKey == key) {
+                return values[slot];
+            }
+            if(slotKey == EMPTY) {
+                return NOT_FOUND;
+            }
+        }
+    }
+
+    void putIfAbsent(int bookingId, Location.LocationType locationType, int locationIndex) {
+        final long key = key(bookingId, locationType);
+        int slot = slot(key);
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == key) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = locationIndex;
+    }
+
+    private static long key(int bookingId, Location.LocationType locationType) {
+        return ((long) bookingId << 8) | locationType.ordinal();
+    }
+
+    private int slot(long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+}
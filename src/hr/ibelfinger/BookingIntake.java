@@ -0,0 +1,172 @@
+package hr.ibelfinger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Collects bookings from any number of request threads and hands them on in batches from a single thread,
+ * e.g. to RollingHorizonDispatcher.submitAll.
+ * <p>
+ * Producers only append to a lock free queue and at most unpark the consumer, so they never wait for each other
+ * or for the consumer. A batch closes when it has maxBatchSize bookings or its oldest booking has waited for the
+ * window, whichever comes first.
+ */
+public class BookingIntake implements AutoCloseable {
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Consumer<List<Location[]>> batchConsumer;
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalBatchLatencyNanos = new LongAdder();
+    private final LongAccumulator maxBatchLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    public BookingIntake(int maxBatchSize, long windowMillis, Consumer<List<Location[]>> batchConsumer) {
+        if(maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size has to be at least 1, got " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.batchConsumer = batchConsumer;
+        this.consumer = new Thread(this::consume, "booking-intake");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    public void submit(Location pickup, Location dropoff) {
+        if(pickup.getBookingId() != dropoff.getBookingId()
+                || pickup.getLocationType() != Location.LocationType.PICKUP
+                || dropoff.getLocationType() != Location.LocationType.DROPOFF) {
+            throw new IllegalArgumentException("Expected pickup and dropoff of one booking, got " + pickup + " and " + dropoff);
+        }
+        if(!running) {
+            throw new IllegalStateException("Booking intake is closed");
+        }
+        queue.add(new Entry(pickup, dropoff, System.nanoTime()));
+        submitted.increment();
+        // the consumer sleeps while the queue is empty and while a batch is filling up
+        final int queued = depth.incrementAndGet();
+        if(queued == 1 || queued >= maxBatchSize) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Bookings waiting for their batch to close.
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Average time from the oldest booking of a batch being submitted to the batch being handed on.
+     */
+    public double getAverageBatchLatencyMillis() {
+        final long count = batches.sum();
+        return count == 0 ? 0 : totalBatchLatencyNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxBatchLatencyMillis() {
+        return maxBatchLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Stops accepting bookings and hands on whatever is still queued before returning.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // bookings of producers that passed the running check just before it was cleared
+        final List<Entry> rest = new ArrayList<>();
+        for(Entry entry; (entry = queue.poll()) != null; ) {
+            rest.add(entry);
+        }
+        if(!rest.isEmpty()) {
+            depth.addAndGet(-rest.size());
+            handOn(rest);
+        }
+    }
+
+    private void consume() {
+        final List<Entry> batch = new ArrayList<>(maxBatchSize);
+        while(running || !queue.isEmpty()) {
+            final Entry first = queue.poll();
+            if(first == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            batch.add(first);
+            final long closeNanos = first.submittedNanos + windowNanos;
+            while(batch.size() < maxBatchSize) {
+                final Entry entry = queue.poll();
+                if(entry != null) {
+                    batch.add(entry);
+                    continue;
+                }
+                final long remainingNanos = closeNanos - System.nanoTime();
+                if(remainingNanos <= 0 || !running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remainingNanos);
+            }
+            depth.addAndGet(-batch.size());
+            handOn(batch);
+            batch.clear();
+        }
+    }
+
+    private void handOn(List<Entry> batch) {
+        final List<Location[]> bookings = new ArrayList<>(batch.size());
+        for(Entry entry : batch) {
+            bookings.add(new Location[]{entry.pickup, entry.dropoff});
+        }
+        final long latencyNanos = System.nanoTime() - batch.get(0).submittedNanos;
+        batches.increment();
+        totalBatchLatencyNanos.add(latencyNanos);
+        maxBatchLatencyNanos.accumulate(latencyNanos);
+        try {
+            batchConsumer.accept(bookings);
+        } catch (RuntimeException e) {
+            // one bad batch must not stop the intake
+            System.err.println("Batch of " + bookings.size() + " bookings failed: " + e);
+        }
+    }
+
+    private static final class Entry {
+        final Location pickup;
+        final Location dropoff;
+        final long submittedNanos;
+
+        Entry(Location pickup, Location dropoff, long submittedNanos) {
+            this.pickup = pickup;
+            this.dropoff = dropoff;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * First solution built in plain Java instead of through the solver's callbacks: bookings are inserted one at a time,
+ * always the one that lengthens the routes least, at the pickup and dropoff positions where it does so. Insertions
+ * keep pickup before dropoff, CAPACITY, MAX_PICKUP_DISTANCE and the detour rule exactly as PoolingModel checks
+ * them, so the routes are a valid assignment of the model and local search starts from them.
+ * <p>
+ * Every booking remembers its best insertion. After an insertion only the changed route is evaluated again,
+ * except for bookings whose best insertion was into that route, and those evaluations run in parallel.
+ */
+public class CheapestInsertion {
+    private static final long INFEASIBLE = Long.MAX_VALUE;
+    private static final int NEW_ROUTE = -1;
+
+    private final RouteConstraints constraints;
+    private final DistanceMatrix distanceMatrix;
+    private final int maxStops = RouteConstraints.maxStops();
+
+    private CheapestInsertion(RouteConstraints constraints) {
+        this.constraints = constraints;
+        this.distanceMatrix = constraints.getDistanceMatrix();
+    }
+
+    /**
+     * Returns routes as location indices without depot, one per vehicle that got any booking,
+     * or null if the bookings don't fit into maxVehicles.
+     */
+    public static int[][] construct(LocationStore locations, DistanceMatrix distanceMatrix, int maxVehicles) {
+        return construct(locations, distanceMatrix, maxVehicles, ForkJoinPool.commonPool());
+    }
+
+    public static int[][] construct(LocationStore locations, DistanceMatrix distanceMatrix, int maxVehicles,
+                                    ForkJoinPool pool) {
+        return construct(locations, distanceMatrix, maxVehicles, pool, Long.MAX_VALUE);
+    }
+
+    /**
+     * Also gives up with null once System.currentTimeMillis() reaches the deadline, checked before every insertion.
+     */
+    public static int[][] construct(LocationStore locations, DistanceMatrix distanceMatrix, int maxVehicles,
+                                    ForkJoinPool pool, long deadlineMillis) {
+        return new CheapestInsertion(RouteConstraints.of(locations, distanceMatrix))
+                .construct(maxVehicles, pool, deadlineMillis);
+    }
+
+    /**
+     * Solves with the constructed routes as the first solution. Vehicles are the routes the construction needed,
+     * if the model doesn't accept them (e.g. a pruned arc) GLOBAL_CHEAPEST_ARC builds the first solution instead.
+     * Returns null if there is no solution.
+     */
+    public static FleetSizeEstimator.Solved solve(LocationStore locations, DistanceMatrix distanceMatrix,
+                                                  ArcPruning... arcPrunings) {
+        final RouteConstraints constraints = RouteConstraints.of(locations, distanceMatrix);
+        final int[][] constructed = new CheapestInsertion(constraints)
+                .construct(Math.max(1, constraints.bookings()), ForkJoinPool.commonPool(), Long.MAX_VALUE);
+        if(constructed == null) {
+            return null;
+        }
+        final int[][] routes = constructed.length > 0 ? constructed : new int[][]{new int[0]};
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix, routes.length, arcPrunings);
+        final RoutingModel model = poolingModel.getModel();
+        final RoutingSearchParameters search_parameters = RoutingSearchParameters.newBuilder()
+                .mergeFrom(RoutingModel.defaultSearchParameters())
+                .setFirstSolutionStrategy(FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC)
+                .build();
+        model.CloseModelWithParameters(search_parameters);
+
+        final Assignment initialSolution = model.ReadAssignmentFromRoutes(routes, true);
+        final Assignment solution = poolingModel.solveFromAssignment(initialSolution, search_parameters);
+        return solution == null ? null : new FleetSizeEstimator.Solved(poolingModel, solution);
+    }
+
+    private int[][] construct(int maxVehicles, ForkJoinPool pool, long deadlineMillis) {
+        final int bookings = constraints.bookings();
+        final int[][] routes = new int[Math.min(maxVehicles, bookings)][];
+        final int[] routeLengths = new int[routes.length];
+        int usedRoutes = 0;
+
+        final long[] bestCosts = new long[bookings];
+        final int[] bestRoutes = new int[bookings];
+        final int[] bestPickupPositions = new int[bookings];
+        final int[] bestDropoffPositions = new int[bookings];
+        final int[] unassigned = IntStream.range(0, bookings).toArray();
+        int unassignedCount = bookings;
+
+        Arrays.fill(bestCosts, INFEASIBLE);
+        if(routes.length > 0) {
+            for(int booking = 0; booking < bookings; booking++) {
+                evaluateNewRoute(booking, bestCosts, bestRoutes, bestPickupPositions, bestDropoffPositions);
+            }
+        }
+
+        while(unassignedCount > 0) {
+            if(System.currentTimeMillis() >= deadlineMillis) {
+                return null;
+            }
+            int cheapest = -1;
+            for(int u = 0; u < unassignedCount; u++) {
+                final int booking = unassigned[u];
+                if(cheapest < 0 || bestCosts[booking] < bestCosts[unassigned[cheapest]]) {
+                    cheapest = u;
+                }
+            }
+            final int booking = unassigned[cheapest];
+            if(bestCosts[booking] == INFEASIBLE) {
+                return null;
+            }
+            unassigned[cheapest] = unassigned[--unassignedCount];
+
+            final int route;
+            final boolean lastNewRoute;
+            if(bestRoutes[booking] == NEW_ROUTE) {
+                route = usedRoutes++;
+                routes[route] = new int[maxStops];
+                lastNewRoute = usedRoutes == routes.length;
+            } else {
+                route = bestRoutes[booking];
+                lastNewRoute = false;
+            }
+            routeLengths[route] = insert(routes[route], routeLengths[route], constraints.pickup(booking), constraints.dropoff(booking),
+                    bestPickupPositions[booking], bestDropoffPositions[booking]);
+
+            // only the changed route has new insertions, bookings that wanted it or a new route start over
+            final int remainingCount = unassignedCount;
+            final int usedRouteCount = usedRoutes;
+            pool.submit(() -> IntStream.range(0, remainingCount).parallel().forEach(u -> {
+                final int other = unassigned[u];
+                final int[] candidate = new int[maxStops];
+                if(bestRoutes[other] == route || (lastNewRoute && bestRoutes[other] == NEW_ROUTE)) {
+                    bestCosts[other] = INFEASIBLE;
+                    if(!lastNewRoute && usedRouteCount < routes.length) {
+                        evaluateNewRoute(other, bestCosts, bestRoutes, bestPickupPositions, bestDropoffPositions);
+                    }
+                    for(int r = 0; r < usedRouteCount; r++) {
+                        evaluateRoute(other, r, routes[r], routeLengths[r], candidate,
+                                bestCosts, bestRoutes, bestPickupPositions, bestDropoffPositions);
+                    }
+                } else {
+                    evaluateRoute(other, route, routes[route], routeLengths[route], candidate,
+                            bestCosts, bestRoutes, bestPickupPositions, bestDropoffPositions);
+                }
+            })).join();
+        }
+
+        final int[][] result = new int[usedRoutes][];
+        for(int route = 0; route < usedRoutes; route++) {
+            result[route] = Arrays.copyOf(routes[route], routeLengths[route]);
+        }
+        return result;
+    }
+
+    private void evaluateNewRoute(int booking, long[] bestCosts, int[] bestRoutes,
+                                  int[] bestPickupPositions, int[] bestDropoffPositions) {
+        final long cost = distanceMatrix.distance(PoolingModel.DEPOT_INDEX, constraints.pickup(booking))
+                + distanceMatrix.distance(constraints.pickup(booking), constraints.dropoff(booking))
+                + distanceMatrix.distance(constraints.dropoff(booking), PoolingModel.DEPOT_INDEX);
+        if(cost < bestCosts[booking]) {
+            bestCosts[booking] = cost;
+            bestRoutes[booking] = NEW_ROUTE;
+            bestPickupPositions[booking] = 0;
+            bestDropoffPositions[booking] = 0;
+        }
+    }
+
+    // tries every pickup and dropoff position in the route, the cost delta is checked before feasibility
+    private void evaluateRoute(int booking, int route, int[] stops, int length, int[] candidate, long[] bestCosts,
+                               int[] bestRoutes, int[] bestPickupPositions, int[] bestDropoffPositions) {
+        if(length + 2 > maxStops) {
+            return;
+        }
+        final int pickup = constraints.pickup(booking);
+        final int dropoff = constraints.dropoff(booking);
+        // with the triangle inequality a pickup this far from the first stop is beyond MAX_PICKUP_DISTANCE anywhere,
+        // and inserting the dropoff never costs less than nothing, so positions are skipped by the pickup cost alone
+        if(length > 0 && distanceMatrix.distance(stops[0], pickup) > PoolingModel.MAX_PICKUP_DISTANCE
+                && distanceMatrix.distance(pickup, stops[0]) > PoolingModel.MAX_PICKUP_DISTANCE) {
+            return;
+        }
+        for(int pickupPosition = 0; pickupPosition <= length; pickupPosition++) {
+            final int beforePickup = pickupPosition == 0 ? PoolingModel.DEPOT_INDEX : stops[pickupPosition - 1];
+            final int afterPickup = pickupPosition == length ? PoolingModel.DEPOT_INDEX : stops[pickupPosition];
+            final long pickupDelta = distanceMatrix.distance(beforePickup, pickup)
+                    + distanceMatrix.distance(pickup, afterPickup) - distanceMatrix.distance(beforePickup, afterPickup);
+            if(pickupDelta >= bestCosts[booking]) {
+                continue;
+            }
+            for(int dropoffPosition = pickupPosition; dropoffPosition <= length; dropoffPosition++) {
+                final long cost;
+                if(dropoffPosition == pickupPosition) {
+                    cost = distanceMatrix.distance(beforePickup, pickup) + distanceMatrix.distance(pickup, dropoff)
+                            + distanceMatrix.distance(dropoff, afterPickup)
+                            - distanceMatrix.distance(beforePickup, afterPickup);
+                } else {
+                    final int beforeDropoff = stops[dropoffPosition - 1];
+                    final int afterDropoff = dropoffPosition == length ? PoolingModel.DEPOT_INDEX : stops[dropoffPosition];
+                    cost = pickupDelta + distanceMatrix.distance(beforeDropoff, dropoff)
+                            + distanceMatrix.distance(dropoff, afterDropoff)
+                            - distanceMatrix.distance(beforeDropoff, afterDropoff);
+                }
+                if(cost >= bestCosts[booking]) {
+                    continue;
+                }
+                System.arraycopy(stops, 0, candidate, 0, length);
+                final int candidateLength = insert(candidate, length, pickup, dropoff, pickupPosition, dropoffPosition);
+                if(constraints.isFeasible(candidate, candidateLength)) {
+                    bestCosts[booking] = cost;
+                    bestRoutes[booking] = route;
+                    bestPickupPositions[booking] = pickupPosition;
+                    bestDropoffPositions[booking] = dropoffPosition;
+                }
+            }
+        }
+    }
+
+    // pickup goes before the stop at pickupPosition and dropoff before the stop at dropoffPosition of the old route
+    private static int insert(int[] stops, int length, int pickup, int dropoff, int pickupPosition, int dropoffPosition) {
+        System.arraycopy(stops, dropoffPosition, stops, dropoffPosition + 2, length - dropoffPosition);
+        stops[dropoffPosition + 1] = dropoff;
+        System.arraycopy(stops, pickupPosition, stops, pickupPosition + 1, dropoffPosition - pickupPosition);
+        stops[pickupPosition] = pickup;
+        return length + 2;
+    }
+}
@@ -0,0 +1,174 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import hr.ibelfinger.matrix.SubDistanceMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits bookings into geographic clusters, solves every cluster as its own RoutingModel in parallel and
+ * merges the routes. Pickup and dropoff of a booking always end up in the same cluster.
+ */
+public class ClusterDecomposition {
+
+    /**
+     * Returns merged routes, one array of location indices (without depot) per vehicle that got any booking.
+     */
+    public static int[][] solve(LocationStore locations, DistanceMatrix distanceMatrix, int maxBookingsPerCluster,
+                                FirstSolutionStrategy.Value strategy, long clusterTimeLimitMillis) {
+        final List<int[]> clusters = partition(locations, maxBookingsPerCluster);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(clusters.size(), Runtime.getRuntime().availableProcessors())));
+
+        try {
+            final List<Future<int[][]>> futures = new ArrayList<>();
+            for(int[] cluster : clusters) {
+                futures.add(executor.submit(() ->
+                        solveCluster(locations, distanceMatrix, cluster, strategy, clusterTimeLimitMillis)));
+            }
+
+            final List<int[]> routes = new ArrayList<>();
+            for(Future<int[][]> future : futures) {
+                for(int[] route : future.get()) {
+                    if(route.length > 0) {
+                        routes.add(route);
+                    }
+                }
+            }
+            return routes.toArray(new int[0][]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Turns merged routes into an assignment of the full model. With a positive repair time the merged routes
+     * become the first solution of a local search across cluster borders, which runs for that long.
+     */
+    public static Assignment merge(PoolingModel poolingModel, int[][] routes, long repairTimeLimitMillis) {
+        final RoutingModel model = poolingModel.getModel();
+        RoutingSearchParameters search_parameters =
+                RoutingSearchParameters.newBuilder()
+                        .mergeFrom(RoutingModel.defaultSearchParameters())
+                        .setTimeLimitMs(Math.max(1, repairTimeLimitMillis))
+                        .build();
+        model.CloseModelWithParameters(search_parameters);
+
+        final Assignment initialSolution = model.ReadAssignmentFromRoutes(routes, true);
+        if(initialSolution == null || repairTimeLimitMillis <= 0) {
+            return initialSolution;
+        }
+        // ReadAssignmentFromRoutes hands out an assignment of the model's collector, which the next solve clears,
+        // so the merged routes are kept in a copy owned by the solver in case repair finds nothing
+        final Assignment mergedSolution = model.solver().makeAssignment(initialSolution);
+        final Assignment solution = poolingModel.solveFromAssignment(initialSolution, search_parameters);
+        return solution != null ? solution : mergedSolution;
+    }
+
+    /**
+     * Recursive coordinate bisection of bookings by pickup position: the bookings are split at the median of
+     * the wider side until no part has more than maxBookingsPerCluster bookings.
+     * Returns location indices of every cluster, depot first and then pickup and dropoff of each booking.
+     */
+    static List<int[]> partition(LocationStore locations, int maxBookingsPerCluster) {
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        final List<Integer> pickups = new ArrayList<>();
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                pickups.add(i);
+            }
+        }
+
+        final List<List<Integer>> parts = new ArrayList<>();
+        bisect(locations, pickups, Math.max(1, maxBookingsPerCluster), parts);
+
+        final List<int[]> clusters = new ArrayList<>();
+        for(List<Integer> part : parts) {
+            final int[] cluster = new int[1 + part.size() * 2];
+            cluster[0] = PoolingModel.DEPOT_INDEX;
+            int clusterSize = 1;
+            for(int pickup : part) {
+                final int dropoff = bookingIndex.indexOf(locations.getBookingId(pickup), Location.LocationType.DROPOFF);
+                if(dropoff == BookingIndex.NOT_FOUND) {
+                    throw new RuntimeException("Booking " + locations.getBookingId(pickup) + " has pickup but no dropoff");
+                }
+                cluster[clusterSize++] = pickup;
+                cluster[clusterSize++] = dropoff;
+            }
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+
+    private static void bisect(LocationStore locations, List<Integer> pickups, int maxBookingsPerCluster, List<List<Integer>> parts) {
+        if(pickups.size() <= maxBookingsPerCluster) {
+            parts.add(pickups);
+            return;
+        }
+        double minLatitude = Double.MAX_VALUE, maxLatitude = -Double.MAX_VALUE;
+        double minLongitude = Double.MAX_VALUE, maxLongitude = -Double.MAX_VALUE;
+        for(int pickup : pickups) {
+            minLatitude = Math.min(minLatitude, locations.getLatitude(pickup));
+            maxLatitude = Math.max(maxLatitude, locations.getLatitude(pickup));
+            minLongitude = Math.min(minLongitude, locations.getLongitude(pickup));
+            maxLongitude = Math.max(maxLongitude, locations.getLongitude(pickup));
+        }
+        final Comparator<Integer> byWiderSide = maxLatitude - minLatitude >= maxLongitude - minLongitude
+                ? Comparator.comparingDouble(locations::getLatitude)
+                : Comparator.comparingDouble(locations::getLongitude);
+
+        final List<Integer> sorted = new ArrayList<>(pickups);
+        sorted.sort(byWiderSide);
+        final int middle = sorted.size() / 2;
+        bisect(locations, sorted.subList(0, middle), maxBookingsPerCluster, parts);
+        bisect(locations, sorted.subList(middle, sorted.size()), maxBookingsPerCluster, parts);
+    }
+
+    private static int[][] solveCluster(LocationStore locations, DistanceMatrix distanceMatrix, int[] cluster,
+                                        FirstSolutionStrategy.Value strategy, long timeLimitMillis) {
+        final LocationStore clusterLocations = new LocationStore(cluster.length);
+        for(int location : cluster) {
+            clusterLocations.add(locations.getBookingId(location), locations.getLocationType(location),
+                    locations.getLatitude(location), locations.getLongitude(location), locations.isCnf(location));
+        }
+        // every booking fits in its own car, so one vehicle per booking is always feasible
+        final int numberOfVehicles = (cluster.length - 1) / 2;
+        final PoolingModel poolingModel = PoolingModel.build(clusterLocations,
+                new SubDistanceMatrix(distanceMatrix, cluster), numberOfVehicles);
+
+        RoutingSearchParameters search_parameters =
+                RoutingSearchParameters.newBuilder()
+                        .mergeFrom(RoutingModel.defaultSearchParameters())
+                        .setFirstSolutionStrategy(strategy)
+                        .setTimeLimitMs(timeLimitMillis)
+                        .build();
+        final Assignment solution = poolingModel.solve(search_parameters);
+        if(solution == null) {
+            throw new RuntimeException("Cluster " + Arrays.toString(cluster) + " couldnt give result");
+        }
+
+        final int[][] routes = poolingModel.routes(solution);
+        for(int[] route : routes) {
+            for(int i = 0; i < route.length; i++) {
+                route[i] = cluster[route[i]];
+            }
+        }
+        return routes;
+    }
+}
@@ -0,0 +1,134 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.VoidToBoolean;
+import com.google.ortools.constraintsolver.VoidToVoid;
+import hr.ibelfinger.metrics.Counter;
+import hr.ibelfinger.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records every improving objective of a routing search with the time it was found, and stops the search once
+ * the objective improved by less than minImprovementRatio over the last window. The search then returns its best
+ * solution as if its time limit had run out, so the time limit only has to bound the worst case.
+ * <p>
+ * Stopping is a custom limit, which the solver checks all through the search, so a plateau is noticed even when
+ * no new solutions come. Attach the monitor before the model is closed, one search at a time, and read the
+ * history once the search is over.
+ */
+public class ConvergenceMonitor {
+    private static final Counter PLATEAU_STOPS = Metrics.global().counter(
+            "search_plateau_stops_total", "Searches stopped early because the objective stopped improving");
+
+    private final long windowNanos;
+    private final double minImprovementRatio;
+    private final List<Improvement> improvements = new ArrayList<>();
+    // callbacks of the attached model, kept so they aren't garbage collected while native code still calls them
+    private VoidToVoid solutionCallback;
+    private VoidToBoolean plateauCheck;
+    private long startNanos;
+    // last improvement at least a window old
+    private int windowStart;
+    private boolean stoppedOnPlateau;
+
+    public ConvergenceMonitor(long windowMillis, double minImprovementRatio) {
+        if(windowMillis <= 0 || minImprovementRatio < 0) {
+            throw new IllegalArgumentException("Expected positive window and non negative improvement ratio, got "
+                    + windowMillis + " ms and " + minImprovementRatio);
+        }
+        this.windowNanos = windowMillis * 1_000_000;
+        this.minImprovementRatio = minImprovementRatio;
+    }
+
+    /**
+     * Starts following the next search of the model, forgetting the previous one.
+     */
+    public void attach(RoutingModel model) {
+        improvements.clear();
+        startNanos = 0;
+        windowStart = 0;
+        stoppedOnPlateau = false;
+        solutionCallback = new VoidToVoid() {
+            @Override
+            public void run() {
+                final long nowNanos = elapsedNanos();
+                final long objective = model.costVar().value();
+                if(improvements.isEmpty() || objective < improvements.get(improvements.size() - 1).objective) {
+                    improvements.add(new Improvement(nowNanos, objective));
+                }
+            }
+        };
+        plateauCheck = new VoidToBoolean() {
+            @Override
+            public boolean run() {
+                if(!stoppedOnPlateau && isPlateau(elapsedNanos())) {
+                    stoppedOnPlateau = true;
+                    PLATEAU_STOPS.increment();
+                }
+                return stoppedOnPlateau;
+            }
+        };
+        model.AddAtSolutionCallback(solutionCallback);
+        model.addSearchMonitor(model.solver().makeCustomLimit(plateauCheck));
+    }
+
+    /**
+     * Improving objectives in the order they were found, times are from the start of the search.
+     */
+    public List<Improvement> getImprovements() {
+        return Collections.unmodifiableList(improvements);
+    }
+
+    public boolean isStoppedOnPlateau() {
+        return stoppedOnPlateau;
+    }
+
+    // the clock starts at the first callback, closing the model can take a while after attach
+    private long elapsedNanos() {
+        final long nowNanos = System.nanoTime();
+        if(startNanos == 0) {
+            startNanos = nowNanos;
+        }
+        return nowNanos - startNanos;
+    }
+
+    private boolean isPlateau(long nowNanos) {
+        if(improvements.isEmpty() || nowNanos - improvements.get(0).elapsedNanos < windowNanos) {
+            return false;
+        }
+        // time only moves forward, so the start of the window does too
+        while(windowStart + 1 < improvements.size()
+                && improvements.get(windowStart + 1).elapsedNanos <= nowNanos - windowNanos) {
+            windowStart++;
+        }
+        final long windowObjective = improvements.get(windowStart).objective;
+        final long bestObjective = improvements.get(improvements.size() - 1).objective;
+        return windowObjective - bestObjective <= minImprovementRatio * Math.abs(windowObjective);
+    }
+
+    public static class Improvement {
+        private final long elapsedNanos;
+        private final long objective;
+
+        Improvement(long elapsedNanos, long objective) {
+            this.elapsedNanos = elapsedNanos;
+            this.objective = objective;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        public long getObjective() {
+            return objective;
+        }
+
+        @Override
+        public String toString() {
+            return getElapsedMillis() + " ms: " + objective;
+        }
+    }
+}
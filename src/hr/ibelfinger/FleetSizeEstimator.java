@@ -0,0 +1,159 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import hr.ibelfinger.metrics.Counter;
+import hr.ibelfinger.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the number of vehicles for a PoolingModel. Every vehicle adds its own start and end nodes and cumul
+ * variables, so the estimate starts from a quick greedy grouping of bookings and only grows when the
+ * model comes back without a solution.
+ */
+public class FleetSizeEstimator {
+    private static final Counter FLEET_GROWTHS = Metrics.global().counter(
+            "fleet_growths_total", "Models rebuilt with a larger fleet because they had no solution");
+
+    /**
+     * Dropoff doesn't free a seat (its capacityModifier is 0), so a vehicle serves at most
+     * CAPACITY / PICKUP.capacityModifier() bookings. Bookings are grouped greedily in pickup order: a booking
+     * joins an open group when both its pickup and dropoff are within half of its own trip distance from the
+     * first booking of the group, which is roughly what the 1.5x detour rule leaves room for.
+     */
+    public static int estimate(LocationStore locations, DistanceMatrix distanceMatrix) {
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        final int bookingsPerVehicle = PoolingModel.CAPACITY / Location.LocationType.PICKUP.capacityModifier();
+
+        final List<Integer> pickups = new ArrayList<>();
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                pickups.add(i);
+            }
+        }
+        if(pickups.isEmpty()) {
+            return 1;
+        }
+        pickups.sort(Comparator.comparingDouble(locations::getLongitude));
+
+        final List<int[]> openGroups = new ArrayList<>(); // {first pickup, first dropoff, size}
+        int groups = 0;
+        for(int pickup : pickups) {
+            final int dropoff = bookingIndex.indexOf(locations.getBookingId(pickup), Location.LocationType.DROPOFF);
+            if(dropoff == BookingIndex.NOT_FOUND) {
+                throw new RuntimeException("Booking " + locations.getBookingId(pickup) + " has pickup but no dropoff");
+            }
+            final long maxDetour = distanceMatrix.distance(pickup, dropoff) / 2;
+
+            int[] joined = null;
+            for(int[] group : openGroups) {
+                if(distanceMatrix.distance(group[0], pickup) <= maxDetour
+                        && distanceMatrix.distance(group[1], dropoff) <= maxDetour) {
+                    joined = group;
+                    break;
+                }
+            }
+            if(joined == null) {
+                joined = new int[]{pickup, dropoff, 0};
+                openGroups.add(joined);
+                groups++;
+            }
+            if(++joined[2] >= bookingsPerVehicle) {
+                openGroups.remove(joined);
+            }
+        }
+
+        final int lowerBound = (pickups.size() + bookingsPerVehicle - 1) / bookingsPerVehicle;
+        return Math.max(lowerBound, groups);
+    }
+
+    /**
+     * Solves with the estimated fleet, growing it by half until a solution is found. One vehicle per booking
+     * is always feasible, so that is where growing stops. Returns null only if even that has no solution.
+     */
+    public static Solved solve(LocationStore locations, DistanceMatrix distanceMatrix,
+                               FirstSolutionStrategy.Value firstSolutionStrategy, ArcPruning... arcPrunings) {
+        return solve(locations, distanceMatrix, firstSolutionStrategy, null, arcPrunings);
+    }
+
+    /**
+     * Same as solve, with the convergence monitor (if not null) attached to every model tried,
+     * so it ends up following the solved one.
+     */
+    public static Solved solve(LocationStore locations, DistanceMatrix distanceMatrix,
+                               FirstSolutionStrategy.Value firstSolutionStrategy,
+                               ConvergenceMonitor convergenceMonitor, ArcPruning... arcPrunings) {
+        final int maxVehicles = maxVehicles(locations);
+        int numberOfVehicles = Math.min(maxVehicles, estimate(locations, distanceMatrix));
+        RoutingSearchParameters search_parameters =
+                RoutingSearchParameters.newBuilder()
+                        .mergeFrom(RoutingModel.defaultSearchParameters())
+                        .setFirstSolutionStrategy(firstSolutionStrategy)
+                        .build();
+
+        while(true) {
+            final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix, numberOfVehicles, arcPrunings);
+            if(convergenceMonitor != null) {
+                convergenceMonitor.attach(poolingModel.getModel());
+            }
+            final Assignment solution = poolingModel.solve(search_parameters);
+            if(solution != null) {
+                return new Solved(poolingModel, solution);
+            }
+            if(numberOfVehicles >= maxVehicles) {
+                return null;
+            }
+            numberOfVehicles = grow(numberOfVehicles, maxVehicles);
+        }
+    }
+
+    /**
+     * One vehicle per booking, the fleet that is always feasible.
+     */
+    static int maxVehicles(LocationStore locations) {
+        return Math.max(1, countBookings(locations));
+    }
+
+    /**
+     * Next fleet to try after numberOfVehicles had no solution, half as large again and at most maxVehicles.
+     * Counted in fleet_growths_total.
+     */
+    static int grow(int numberOfVehicles, int maxVehicles) {
+        FLEET_GROWTHS.increment();
+        return Math.min(maxVehicles, numberOfVehicles + Math.max(1, numberOfVehicles / 2));
+    }
+
+    static int countBookings(LocationStore locations) {
+        int bookings = 0;
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                bookings++;
+            }
+        }
+        return bookings;
+    }
+
+    public static class Solved {
+        private final PoolingModel model;
+        private final Assignment solution;
+
+        Solved(PoolingModel model, Assignment solution) {
+            this.model = model;
+            this.solution = solution;
+        }
+
+        public PoolingModel getModel() {
+            return model;
+        }
+
+        public Assignment getSolution() {
+            return solution;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import hr.ibelfinger.distance.DistanceProvider;
+import hr.ibelfinger.distance.StraightLineDistance;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import hr.ibelfinger.matrix.GrowableDistanceMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last pooled plan and re-plans warm started from it whenever a booking arrives,
+ * instead of solving the whole problem from scratch.
+ * <p>
+ * A closed RoutingModel can't take new nodes, so every new booking still builds a new model. The previous
+ * routes are restored into it with the new booking on a free vehicle, which is always feasible, and local
+ * search continues from there with solveFromAssignmentWithParameters. The distance matrix does carry over, each
+ * booking only adds the distances from and to its pickup and dropoff.
+ */
+public class LivePlanner {
+    private final LocationStore locations;
+    private final DistanceProvider distanceProvider;
+    private final FirstSolutionStrategy.Value firstSolutionStrategy;
+    private final long timeLimitMillis;
+
+    private GrowableDistanceMatrix distanceMatrix;
+    private int numberOfVehicles;
+    private int[][] routes;
+    private PoolingModel poolingModel;
+    private Assignment solution;
+    private RouteIndex routeIndex;
+
+    public LivePlanner(LocationStore locations, int numberOfVehicles,
+                       FirstSolutionStrategy.Value firstSolutionStrategy, long timeLimitMillis) {
+        this(locations, new StraightLineDistance(), numberOfVehicles, firstSolutionStrategy, timeLimitMillis);
+    }
+
+    public LivePlanner(LocationStore locations, DistanceProvider distanceProvider, int numberOfVehicles,
+                       FirstSolutionStrategy.Value firstSolutionStrategy, long timeLimitMillis) {
+        this.locations = locations;
+        this.distanceProvider = distanceProvider;
+        this.numberOfVehicles = numberOfVehicles;
+        this.firstSolutionStrategy = firstSolutionStrategy;
+        this.timeLimitMillis = timeLimitMillis;
+    }
+
+    /**
+     * Cold solve of the current locations. Returns null if no plan was found.
+     */
+    public Assignment plan() {
+        poolingModel = PoolingModel.build(locations, distanceMatrix(), numberOfVehicles);
+        solution = poolingModel.solve(searchParameters());
+        routes = solution != null ? poolingModel.routes(solution) : null;
+        indexRoutes();
+        return solution;
+    }
+
+    /**
+     * Adds the booking and re-plans warm started from the previous routes. Returns null if no plan was found,
+     * in which case the booking stays added and the next call cold solves.
+     */
+    public Assignment addBooking(Location pickup, Location dropoff) {
+        if(pickup.getBookingId() != dropoff.getBookingId()
+                || pickup.getLocationType() != Location.LocationType.PICKUP
+                || dropoff.getLocationType() != Location.LocationType.DROPOFF) {
+            throw new IllegalArgumentException("Expected pickup and dropoff of one booking, got " + pickup + " and " + dropoff);
+        }
+        final int pickupIndex = locations.add(pickup);
+        final int dropoffIndex = locations.add(dropoff);
+
+        if(routes == null) {
+            return plan();
+        }
+
+        int freeVehicle = findFreeVehicle();
+        if(freeVehicle < 0) {
+            freeVehicle = numberOfVehicles++;
+            routes = Arrays.copyOf(routes, numberOfVehicles);
+        }
+        routes[freeVehicle] = new int[]{pickupIndex, dropoffIndex};
+
+        poolingModel = PoolingModel.build(locations, distanceMatrix(), numberOfVehicles);
+        final RoutingModel model = poolingModel.getModel();
+        final RoutingSearchParameters search_parameters = searchParameters();
+        model.CloseModelWithParameters(search_parameters);
+
+        final Assignment initialSolution = model.ReadAssignmentFromRoutes(routes, true);
+        solution = poolingModel.solveFromAssignment(initialSolution, search_parameters);
+        routes = solution != null ? poolingModel.routes(solution) : null;
+        indexRoutes();
+        return solution;
+    }
+
+    public PoolingModel getPoolingModel() {
+        return poolingModel;
+    }
+
+    public Assignment getSolution() {
+        return solution;
+    }
+
+    /**
+     * Stops of the current plan, for shortlisting vehicles near a new pickup. Null before the first plan.
+     */
+    public RouteIndex getRouteIndex() {
+        return routeIndex;
+    }
+
+    // only routes that changed since the last plan are re-indexed
+    private void indexRoutes() {
+        if(routes == null) {
+            return;
+        }
+        if(routeIndex == null) {
+            routeIndex = RouteIndex.of(routes, locations);
+        } else {
+            for(int vehicle = 0; vehicle < routes.length; vehicle++) {
+                routeIndex.updateRoute(vehicle, routes[vehicle]);
+            }
+        }
+    }
+
+    // the first call computes the whole matrix, later ones only what the locations added since need
+    private DistanceMatrix distanceMatrix() {
+        if(distanceMatrix == null) {
+            distanceMatrix = GrowableDistanceMatrix.of(locations, distanceProvider);
+        } else {
+            distanceMatrix.grow();
+        }
+        return distanceMatrix;
+    }
+
+    private int findFreeVehicle() {
+        for(int vehicle = 0; vehicle < routes.length; vehicle++) {
+            if(routes[vehicle].length == 0) {
+                return vehicle;
+            }
+        }
+        return -1;
+    }
+
+    private RoutingSearchParameters searchParameters() {
+        return RoutingSearchParameters.newBuilder()
+                .mergeFrom(RoutingModel.defaultSearchParameters())
+                .setFirstSolutionStrategy(firstSolutionStrategy)
+                .setTimeLimitMs(timeLimitMillis)
+                .build();
+    }
+}
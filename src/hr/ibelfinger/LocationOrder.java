@@ -0,0 +1,100 @@
+package hr.ibelfinger;
+
+import hr.ibelfinger.spatial.HilbertCurve;
+
+import java.util.Arrays;
+
+/**
+ * Renumbering of a LocationStore. Bookings come in booking order, so stops close to each other end up far apart
+ * in the distance matrix and every evaluator call of the solver reads from somewhere else in memory. Numbered
+ * along a Hilbert curve, the stops local search compares are mostly a few rows apart and their distances share
+ * cache lines and pages.
+ * <p>
+ * The depot stays at DEPOT_INDEX. Build the distance matrix and the model from getLocations() and map routes
+ * back to the original indices with toOriginal when reporting.
+ */
+public class LocationOrder {
+    private static final int HILBERT_ORDER = 16;
+
+    private final LocationStore originalLocations;
+    private final LocationStore locations;
+    // per reordered index
+    private final int[] toOriginal;
+
+    private LocationOrder(LocationStore originalLocations, LocationStore locations, int[] toOriginal) {
+        this.originalLocations = originalLocations;
+        this.locations = locations;
+        this.toOriginal = toOriginal;
+    }
+
+    public static LocationOrder hilbert(LocationStore originalLocations) {
+        final int size = originalLocations.size();
+        double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < size; i++) {
+            minLatitude = Math.min(minLatitude, originalLocations.getLatitude(i));
+            maxLatitude = Math.max(maxLatitude, originalLocations.getLatitude(i));
+            minLongitude = Math.min(minLongitude, originalLocations.getLongitude(i));
+            maxLongitude = Math.max(maxLongitude, originalLocations.getLongitude(i));
+        }
+        final int maxCell = (1 << HILBERT_ORDER) - 1;
+        final double latitudeScale = maxCell / Math.max(maxLatitude - minLatitude, Double.MIN_NORMAL);
+        final double longitudeScale = maxCell / Math.max(maxLongitude - minLongitude, Double.MIN_NORMAL);
+
+        // curve position in the high bits and index in the low bits, so one primitive sort orders both
+        final long[] keys = new long[Math.max(0, size - 1)];
+        int keyCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(i == PoolingModel.DEPOT_INDEX) {
+                continue;
+            }
+            final int x = (int) ((originalLocations.getLongitude(i) - minLongitude) * longitudeScale);
+            final int y = (int) ((originalLocations.getLatitude(i) - minLatitude) * latitudeScale);
+            final long position = HilbertCurve.index(HILBERT_ORDER, x, y);
+            keys[keyCount++] = (position << (Integer.SIZE - 1)) | i;
+        }
+        Arrays.sort(keys);
+
+        final int[] toOriginal = new int[size];
+        final LocationStore locations = new LocationStore(size);
+        int key = 0;
+        for(int index = 0; index < size; index++) {
+            final int original = index == PoolingModel.DEPOT_INDEX ? index : (int) (keys[key++] & Integer.MAX_VALUE);
+            toOriginal[index] = original;
+            locations.add(originalLocations.getBookingId(original), originalLocations.getLocationType(original),
+                    originalLocations.getLatitude(original), originalLocations.getLongitude(original),
+                    originalLocations.isCnf(original));
+        }
+        return new LocationOrder(originalLocations, locations, toOriginal);
+    }
+
+    /**
+     * Reordered locations.
+     */
+    public LocationStore getLocations() {
+        return locations;
+    }
+
+    public LocationStore getOriginalLocations() {
+        return originalLocations;
+    }
+
+    public int toOriginal(int index) {
+        return toOriginal[index];
+    }
+
+    public int[][] toOriginal(int[][] routes) {
+        final int[][] originalRoutes = new int[routes.length][];
+        for(int vehicle = 0; vehicle < routes.length; vehicle++) {
+            originalRoutes[vehicle] = new int[routes[vehicle].length];
+            for(int stop = 0; stop < routes[vehicle].length; stop++) {
+                originalRoutes[vehicle][stop] = toOriginal[routes[vehicle][stop]];
+            }
+        }
+        return originalRoutes;
+    }
+
+    public RouteTable toOriginal(RouteTable routes) {
+        return routes.mapNodes(toOriginal);
+    }
+}
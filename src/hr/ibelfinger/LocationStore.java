@@ -0,0 +1,89 @@
+package hr.ibelfinger;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Columnar alternative to List&lt;Location&gt;: every field lives in its own primitive array and a location
+ * is just its index. Evaluators and printers read the columns directly, without dereferencing objects.
+ */
+public class LocationStore {
+    private static final Location.LocationType[] LOCATION_TYPES = Location.LocationType.values();
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[] bookingIds;
+    private byte[] locationTypes;
+    private final BitSet cnf = new BitSet();
+    private int size;
+
+    public LocationStore(int initialCapacity) {
+        final int capacity = Math.max(1, initialCapacity);
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.bookingIds = new int[capacity];
+        this.locationTypes = new byte[capacity];
+    }
+
+    public static LocationStore of(List<Location> locations) {
+        final LocationStore store = new LocationStore(locations.size());
+        for(Location location : locations) {
+            store.add(location);
+        }
+        return store;
+    }
+
+    public int add(Location location) {
+        return add(location.getBookingId(), location.getLocationType(), location.getLatitude(),
+                location.getLongitude(), location.isCnf());
+    }
+
+    public int add(int bookingId, Location.LocationType locationType, double latitude, double longitude, boolean isCnf) {
+        if(size == bookingIds.length) {
+            final int capacity = size * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            bookingIds = Arrays.copyOf(bookingIds, capacity);
+            locationTypes = Arrays.copyOf(locationTypes, capacity);
+        }
+        final int index = size++;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        bookingIds[index] = bookingId;
+        locationTypes[index] = (byte) locationType.ordinal();
+        cnf.set(index, isCnf);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getBookingId(int index) {
+        return bookingIds[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public Location.LocationType getLocationType(int index) {
+        return LOCATION_TYPES[locationTypes[index]];
+    }
+
+    public boolean isCnf(int index) {
+        return cnf.get(index);
+    }
+
+    /**
+     * Materializes a Location object, for code that still works with the object model.
+     */
+    public Location get(int index) {
+        return new Location(bookingIds[index], getLocationType(index), latitudes[index], longitudes[index], cnf.get(index));
+    }
+}
@@ -3,10 +3,16 @@ package hr.ibelfinger;
 import java.util.List;
 
 public class LocationUtils {
+    public static final double DISTANCE_PER_DEGREE = 10_000;
 
     public static long getLocationDistance(Location firstLocation, Location secondLocation) {
         return (long) ((Math.abs(firstLocation.getLatitude() - secondLocation.getLatitude())
-                + Math.abs(firstLocation.getLongitude() - secondLocation.getLongitude())) * 10_000);
+                + Math.abs(firstLocation.getLongitude() - secondLocation.getLongitude())) * DISTANCE_PER_DEGREE);
+    }
+
+    public static long getLocationDistance(LocationStore locations, int firstIndex, int secondIndex) {
+        return (long) ((Math.abs(locations.getLatitude(firstIndex) - locations.getLatitude(secondIndex))
+                + Math.abs(locations.getLongitude(firstIndex) - locations.getLongitude(secondIndex))) * DISTANCE_PER_DEGREE);
     }
 
     public static Integer findLocationIndex(List<Location> locations, int bookingId, Location.LocationType locationType) {
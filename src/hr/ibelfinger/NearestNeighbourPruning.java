@@ -0,0 +1,134 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.IntVar;
+import com.google.ortools.constraintsolver.RoutingModel;
+import hr.ibelfinger.spatial.GridIndex;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps only arcs between nodes that are among each other's k nearest, looked up on a GridIndex instead of
+ * sorting matrix rows. Arcs from and to the depot are kept, and so is pickup to its own dropoff.
+ * On big instances local search then stops evaluating arcs that can never be part of a good route.
+ * <p>
+ * Every node can still go straight to the route end, so models with a vehicle per booking stay feasible.
+ * With a single vehicle a small k can cut every tour, pick k generously there.
+ */
+public class NearestNeighbourPruning implements ArcPruning {
+    private final int neighbours;
+
+    public NearestNeighbourPruning(int neighbours) {
+        if(neighbours <= 0) {
+            throw new IllegalArgumentException("Number of neighbours has to be positive, got " + neighbours);
+        }
+        this.neighbours = neighbours;
+    }
+
+    @Override
+    public void apply(RoutingModel model, LocationStore locations) {
+        final int size = locations.size();
+        final double[] latitudes = new double[size];
+        final double[] longitudes = new double[size];
+        final boolean[] depots = new boolean[size];
+        final int[] keptSuccessors = new int[size];
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        for(int i = 0; i < size; i++) {
+            latitudes[i] = locations.getLatitude(i);
+            longitudes[i] = locations.getLongitude(i);
+            depots[i] = locations.getLocationType(i) == Location.LocationType.DEPOT;
+            keptSuccessors[i] = locations.getLocationType(i) == Location.LocationType.PICKUP
+                    ? bookingIndex.indexOf(locations.getBookingId(i), Location.LocationType.DROPOFF)
+                    : BookingIndex.NOT_FOUND;
+        }
+        prune(model, latitudes, longitudes, neighbours, depots, keptSuccessors);
+    }
+
+    /**
+     * For models over plain coordinates with a single depot node, like the routing examples.
+     */
+    public static void prune(RoutingModel model, double[] xs, double[] ys, int neighbours, int depot) {
+        final boolean[] depots = new boolean[xs.length];
+        depots[depot] = true;
+        final int[] keptSuccessors = new int[xs.length];
+        Arrays.fill(keptSuccessors, -1);
+        prune(model, xs, ys, neighbours, depots, keptSuccessors);
+    }
+
+    private static void prune(RoutingModel model, double[] xs, double[] ys, int neighbours,
+                              boolean[] depots, int[] keptSuccessors) {
+        final int size = xs.length;
+        final int[] nodes = IntStream.range(0, size).filter(node -> !depots[node]).toArray();
+        final GridIndex grid = GridIndex.of(xs, ys, nodes);
+
+        final int[][] nearest = new int[size][];
+        IntStream.of(nodes).parallel().forEach(node -> {
+            final int[] result = new int[neighbours];
+            nearest[node] = Arrays.copyOf(result, grid.nearest(xs[node], ys[node], neighbours, node, result));
+        });
+
+        // an arc stays if either end has the other among its nearest, so no node is left without predecessors
+        final int[] nearestToCounts = new int[size];
+        for(int node : nodes) {
+            for(int neighbour : nearest[node]) {
+                nearestToCounts[neighbour]++;
+            }
+        }
+        final int[][] nearestTo = new int[size][];
+        for(int node : nodes) {
+            nearestTo[node] = new int[nearestToCounts[node]];
+            nearestToCounts[node] = 0;
+        }
+        for(int node : nodes) {
+            for(int neighbour : nearest[node]) {
+                nearestTo[neighbour][nearestToCounts[neighbour]++] = node;
+            }
+        }
+
+        // non depot nodes ordered by their variable index, so arcs can be removed as index intervals
+        final long[] ordered = new long[nodes.length];
+        for(int i = 0; i < nodes.length; i++) {
+            ordered[i] = model.nodeToIndex(nodes[i]) << 32 | nodes[i];
+        }
+        Arrays.sort(ordered);
+        final long[] indices = new long[nodes.length];
+        final int[] ranks = new int[size];
+        for(int rank = 0; rank < ordered.length; rank++) {
+            indices[rank] = ordered[rank] >>> 32;
+            ranks[(int) ordered[rank]] = rank;
+        }
+        // last rank of the run of consecutive indices every rank is in, starts of other vehicles break runs
+        final int[] runEnds = new int[nodes.length];
+        for(int rank = nodes.length - 1; rank >= 0; rank--) {
+            runEnds[rank] = rank + 1 < nodes.length && indices[rank + 1] == indices[rank] + 1 ? runEnds[rank + 1] : rank;
+        }
+
+        for(int node : nodes) {
+            final int[] kept = new int[nearest[node].length + nearestTo[node].length + 2];
+            int keptCount = 0;
+            kept[keptCount++] = ranks[node];
+            for(int neighbour : nearest[node]) {
+                kept[keptCount++] = ranks[neighbour];
+            }
+            for(int neighbour : nearestTo[node]) {
+                kept[keptCount++] = ranks[neighbour];
+            }
+            if(keptSuccessors[node] >= 0) {
+                kept[keptCount++] = ranks[keptSuccessors[node]];
+            }
+            Arrays.sort(kept, 0, keptCount);
+
+            final IntVar next = model.nextVar(model.nodeToIndex(node));
+            int removeFrom = 0;
+            for(int i = 0; i <= keptCount; i++) {
+                final int removeTo = i < keptCount ? kept[i] - 1 : nodes.length - 1;
+                for(int rank = removeFrom; rank <= removeTo; rank = runEnds[rank] + 1) {
+                    next.removeInterval(indices[rank], indices[Math.min(runEnds[rank], removeTo)]);
+                }
+                if(i < keptCount) {
+                    removeFrom = Math.max(removeFrom, kept[i] + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.IntExpr;
+import com.google.ortools.constraintsolver.NodeEvaluator2;
+import com.google.ortools.constraintsolver.RoutingDimension;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import com.google.ortools.constraintsolver.Solver;
+import com.google.ortools.constraintsolver.VoidToVoid;
+import hr.ibelfinger.evaluators.CapacityEvaluator;
+import hr.ibelfinger.evaluators.MatrixEvaluator;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import hr.ibelfinger.metrics.Counter;
+import hr.ibelfinger.metrics.Metrics;
+import hr.ibelfinger.metrics.Timer;
+
+import java.util.Arrays;
+
+/**
+ * RoutingModel for the pooling problem together with everything it was built from.
+ * Evaluators are kept here so they aren't garbage collected while native code still calls them.
+ * <p>
+ * Building and solving record their phases in Metrics.global(). Solve through solve and solveFromAssignment
+ * to get the first solution and local search split, the solver only tells when a solution is found.
+ */
+public class PoolingModel {
+    public static final int CAPACITY = 3;
+    public static final int DEPOT_INDEX = 0;
+    public static final double MAX_DETOUR_RATIO = 1.5;
+    public static final long MAX_PICKUP_DISTANCE = 1500;
+    // soft lower bound of the distance cumul at CNF stops, which keeps them off the start of routes
+    public static final long CNF_MIN_DISTANCE = 1;
+    public static final long CNF_PENALTY = 100_000_000;
+
+    private static final Timer EVALUATOR_CONSTRUCTION = Metrics.global().timer(
+            "pooling_evaluator_construction_seconds", "Creating the routing model and its evaluators");
+    private static final Timer DIMENSION_SETUP = Metrics.global().timer(
+            "pooling_dimension_setup_seconds", "Arc costs and the distance and capacity dimensions");
+    private static final Timer PICKUP_DROPOFF_CONSTRAINTS = Metrics.global().timer(
+            "pooling_pickup_dropoff_constraints_seconds", "Pickup and delivery, detour and arc pruning constraints");
+    private static final Timer FIRST_SOLUTION = Metrics.global().timer(
+            "pooling_first_solution_seconds", "From the start of a solve to its first solution");
+    private static final Timer LOCAL_SEARCH = Metrics.global().timer(
+            "pooling_local_search_seconds", "From the first solution to the end of a solve");
+    private static final Counter SOLVES = Metrics.global().counter(
+            "pooling_solves_total", "Solves started");
+    private static final Counter FAILED_SOLVES = Metrics.global().counter(
+            "pooling_failed_solves_total", "Solves that ended without a solution");
+    private static final Counter SOLUTIONS = Metrics.global().counter(
+            "pooling_solutions_total", "Solutions found, every improvement during local search counts");
+
+    private final LocationStore locations;
+    private final DistanceMatrix distanceMatrix;
+    private final int numberOfVehicles;
+    private final RoutingModel model;
+    private final MatrixEvaluator distanceEvaluator;
+    private final CapacityEvaluator capacityEvaluator;
+    private final VoidToVoid solutionCallback;
+    // written by the solution callback, which runs on the thread that solves
+    private long firstSolutionNanos;
+
+    private PoolingModel(LocationStore locations, DistanceMatrix distanceMatrix, int numberOfVehicles) {
+        this.locations = locations;
+        this.distanceMatrix = distanceMatrix;
+        this.numberOfVehicles = numberOfVehicles;
+        this.model = new RoutingModel(locations.size(), numberOfVehicles, DEPOT_INDEX);
+        this.distanceEvaluator = new MatrixEvaluator(distanceMatrix);
+        this.capacityEvaluator = new CapacityEvaluator(locations);
+        this.solutionCallback = new VoidToVoid() {
+            @Override
+            public void run() {
+                SOLUTIONS.increment();
+                if(firstSolutionNanos == 0) {
+                    firstSolutionNanos = System.nanoTime();
+                }
+            }
+        };
+        this.model.AddAtSolutionCallback(solutionCallback);
+    }
+
+    /**
+     * Builds the model. Arc prunings are applied last, once all constraints are in place.
+     */
+    public static PoolingModel build(LocationStore locations, DistanceMatrix distanceMatrix, int numberOfVehicles,
+                                     ArcPruning... arcPrunings) {
+        long start = EVALUATOR_CONSTRUCTION.start();
+        final PoolingModel poolingModel = new PoolingModel(locations, distanceMatrix, numberOfVehicles);
+        final RoutingModel model = poolingModel.model;
+        final Solver solver = model.solver();
+        EVALUATOR_CONSTRUCTION.stop(start);
+
+        start = DIMENSION_SETUP.start();
+        model.setArcCostEvaluatorOfAllVehicles(poolingModel.distanceEvaluator);
+        addDistanceDimension(model, poolingModel.distanceEvaluator, locations);
+        addCapacityDimension(model, poolingModel.capacityEvaluator);
+        DIMENSION_SETUP.stop(start);
+
+        start = PICKUP_DROPOFF_CONSTRAINTS.start();
+        markPickupsAndDropoffs(solver, model, locations, distanceMatrix);
+//        markBookingsThatShouldnBeFirstInRoutes(solver, model, locations);
+
+        for(ArcPruning arcPruning : arcPrunings) {
+            arcPruning.apply(model, locations);
+        }
+        PICKUP_DROPOFF_CONSTRAINTS.stop(start);
+
+        return poolingModel;
+    }
+
+    /**
+     * Longest pickup to dropoff distance the detour rule allows for a booking.
+     */
+    public static long maxBookingDistance(long bookingDistance) {
+        return (long) (bookingDistance * MAX_DETOUR_RATIO);
+    }
+
+    public LocationStore getLocations() {
+        return locations;
+    }
+
+    public DistanceMatrix getDistanceMatrix() {
+        return distanceMatrix;
+    }
+
+    public int getNumberOfVehicles() {
+        return numberOfVehicles;
+    }
+
+    public RoutingModel getModel() {
+        return model;
+    }
+
+    /**
+     * solveWithParameters of the model, timed. Returns null if there is no solution.
+     */
+    public Assignment solve(RoutingSearchParameters searchParameters) {
+        return timed(searchParameters, null);
+    }
+
+    /**
+     * solveFromAssignmentWithParameters of the model, timed. The initial solution counts as the first solution.
+     * With a null initial solution it is the same as solve. Returns null if there is no solution.
+     */
+    public Assignment solveFromAssignment(Assignment initialSolution, RoutingSearchParameters searchParameters) {
+        return timed(searchParameters, initialSolution);
+    }
+
+    private Assignment timed(RoutingSearchParameters searchParameters, Assignment initialSolution) {
+        SOLVES.increment();
+        final long start = System.nanoTime();
+        firstSolutionNanos = initialSolution != null ? start : 0;
+        final Assignment solution = initialSolution != null
+                ? model.solveFromAssignmentWithParameters(initialSolution, searchParameters)
+                : model.solveWithParameters(searchParameters);
+        final long end = System.nanoTime();
+        if(firstSolutionNanos != 0) {
+            FIRST_SOLUTION.record(firstSolutionNanos - start);
+            LOCAL_SEARCH.record(end - firstSolutionNanos);
+        }
+        if(solution == null) {
+            FAILED_SOLVES.increment();
+        }
+        return solution;
+    }
+
+    /**
+     * Reads the routes out of the assignment, one array of location indices per vehicle, without depot.
+     */
+    public int[][] routes(Assignment assignment) {
+        final int[][] routes = new int[numberOfVehicles][];
+        final int[] route = new int[locations.size()];
+        for(int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+            int routeLength = 0;
+            for(long index = model.start(vehicle); !model.isEnd(index); index = assignment.value(model.nextVar(index))) {
+                final int node = model.indexToNode(index);
+                if(node != DEPOT_INDEX) {
+                    route[routeLength++] = node;
+                }
+            }
+            routes[vehicle] = Arrays.copyOf(route, routeLength);
+        }
+        return routes;
+    }
+
+    private static void addDistanceDimension(RoutingModel routingModel, NodeEvaluator2 distanceCallback, LocationStore locations){
+        String distance = "distance";
+        int maximum_distance = Integer.MAX_VALUE;  // Maximum distance per vehicle.
+        routingModel.addDimension(
+                distanceCallback,
+                0,  // null slack
+                maximum_distance,
+                true,  // start cumul to zero
+                distance);
+        final RoutingDimension distanceDimension = routingModel.getDimensionOrDie(distance);
+        // Try to minimize the max distance among vehicles.
+        distanceDimension.setGlobalSpanCostCoefficient(100);
+
+        markBookingsThatShouldnBeFirstInRoutes(distanceDimension, routingModel.solver(), routingModel, locations);
+    }
+
+    private static void addCapacityDimension(RoutingModel routingModel, NodeEvaluator2 capacityCallback){
+        //"""Adds capacity constraint"""
+        String capacity = "capacity";
+
+        routingModel.addDimension(
+                capacityCallback,
+                0, // null capacity slack
+                CAPACITY, // vehicle maximum capacities
+                true, // IDK
+                capacity);
+    }
+
+    private static void markBookingsThatShouldnBeFirstInRoutes(RoutingDimension dimension, Solver solver, RoutingModel model, LocationStore locations) {
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.isCnf(i)) {
+                dimension.SetCumulVarSoftLowerBound(i, CNF_MIN_DISTANCE, CNF_PENALTY);
+            }
+        }
+    }
+
+    private static void markPickupsAndDropoffs(Solver solver, RoutingModel model, LocationStore locations, DistanceMatrix distanceMatrix) {
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        for(int i = 0; i< locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                int pickupLocationIndex = i;
+                int bookingId = locations.getBookingId(i);
+
+                int dropoffLocationIndex = bookingIndex.indexOf(bookingId, Location.LocationType.DROPOFF);
+                if(dropoffLocationIndex == BookingIndex.NOT_FOUND) {
+                    throw new RuntimeException("Booking " + bookingId + " has pickup but no dropoff");
+                }
+
+                markAsPickupDropoff(solver, model, pickupLocationIndex, dropoffLocationIndex, distanceMatrix);
+
+                final RoutingDimension distanceDimension = model.getDimensionOrDie("distance");
+
+                distanceDimension.cumulVar(model.nodeToIndex(i)).setRange(0, MAX_PICKUP_DISTANCE);
+
+            }
+        }
+    }
+
+    private static void markAsPickupDropoff(Solver solver, RoutingModel model, int pickupArrayIndex, int dropoffArrayIndex, DistanceMatrix distanceMatrix) {
+        long pickupNodeIndex = model.nodeToIndex(pickupArrayIndex);
+        long deliveryNodeIndex = model.nodeToIndex(dropoffArrayIndex);
+
+        model.AddPickupAndDelivery(pickupArrayIndex, dropoffArrayIndex);
+
+        solver.addConstraint(solver.makeLessOrEqual(
+                model.cumulVar(pickupNodeIndex, "distance"),
+                model.cumulVar(deliveryNodeIndex, "distance")));
+
+        solver.addConstraint(solver.makeEquality(
+                model.vehicleVar(pickupNodeIndex),
+                model.vehicleVar(deliveryNodeIndex)));
+
+        //for every booking, new trip length shouldn't be larger than original * 1.5
+        final long bookingDistance = distanceMatrix.distance(pickupArrayIndex, dropoffArrayIndex);
+        final long maxAllowedBookingDistance = maxBookingDistance(bookingDistance);
+
+        final IntExpr pickupToDropoffDistance = solver.makeDifference(
+                model.cumulVar(deliveryNodeIndex, "distance"),
+                model.cumulVar(pickupNodeIndex, "distance"));
+        solver.addConstraint(
+                solver.makeLessOrEqual(pickupToDropoffDistance, maxAllowedBookingDistance));
+    }
+}
@@ -12,86 +12,236 @@ package hr.ibelfinger;//
 // WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
 // See the License for the specific language governing permissions and
 // limitations under the License.
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 import java.util.*;
 
 import com.google.ortools.constraintsolver.Assignment;
-import com.google.ortools.constraintsolver.IntExpr;
-import com.google.ortools.constraintsolver.NodeEvaluator2;
-import com.google.ortools.constraintsolver.RoutingDimension;
-import com.google.ortools.constraintsolver.RoutingModel;
 import com.google.ortools.constraintsolver.FirstSolutionStrategy;
-import com.google.ortools.constraintsolver.RoutingSearchParameters;
-import com.google.ortools.constraintsolver.Solver;
-import hr.ibelfinger.evaluators.CapacityEvaluator;
-import hr.ibelfinger.evaluators.StraightLineEvaluator;
+import com.google.ortools.constraintsolver.LocalSearchMetaheuristic;
+import hr.ibelfinger.distance.CachedDistanceProvider;
+import hr.ibelfinger.distance.DiskDistanceCache;
+import hr.ibelfinger.distance.DistanceProvider;
+import hr.ibelfinger.distance.StraightLineDistance;
+import hr.ibelfinger.matrix.DistanceMatrix;
+import hr.ibelfinger.matrix.MappedDistanceMatrix;
+import hr.ibelfinger.metrics.Metrics;
+import hr.ibelfinger.metrics.Timer;
+import hr.ibelfinger.road.RoadNetwork;
 
 class PoolingVRP {
-    private static final int CAPACITY = 3;
+    private static final long PORTFOLIO_TIME_BUDGET_MILLIS = 30_000;
+    private static final List<FirstSolutionStrategy.Value> PORTFOLIO_STRATEGIES = Arrays.asList(
+            FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC,
+            FirstSolutionStrategy.Value.PATH_CHEAPEST_ARC,
+            FirstSolutionStrategy.Value.PARALLEL_CHEAPEST_INSERTION,
+            FirstSolutionStrategy.Value.LOCAL_CHEAPEST_INSERTION);
+    private static final long CLUSTER_TIME_LIMIT_MILLIS = 10_000;
+    private static final long CLUSTER_REPAIR_TIME_LIMIT_MILLIS = 5_000;
+    private static final long SYNTHETIC_SEED = 42;
+    private static final double SYNTHETIC_CNF_RATIO = 0.04;
+    private static final int DISTANCE_CACHE_MEMORY_ENTRIES = 1_000_000;
+    private static final int DISTANCE_CACHE_DISK_ENTRIES = 4_000_000;
+    private static final double PLATEAU_MIN_IMPROVEMENT = 0.001;
 
+    private static final Timer LOCATION_LOADING = Metrics.global().timer(
+            "pooling_location_loading_seconds", "Loading or generating the bookings");
+    private static final Timer DISTANCE_MATRIX = Metrics.global().timer(
+            "pooling_distance_matrix_seconds", "Computing or mapping the distance matrix");
+    private static final Timer PRINTING = Metrics.global().timer(
+            "pooling_printing_seconds", "Extracting, printing and exporting the routes");
 
     static {
         System.loadLibrary("jniortools");
     }
 
+    /**
+     * Arguments: [matrix file] [--portfolio] [--clusters=max bookings per cluster] [--repair] [--export=file]
+     *            [--synthetic=number of bookings] [--neighbours=k] [--distance-cache=file]
+     *            [--road-graph=file] [--insertion] [--improve] [--metrics=file]
+     *            [--plateau=window millis] [--deadline=millis] [--metaheuristic=name] [--solution-limit=n]
+     *            [--hilbert]
+     * Matrix file is written on first run and mapped on every following one.
+     * With --portfolio several first solution strategies are raced and the best plan is printed.
+     * With --clusters bookings are split geographically and clusters are solved in parallel,
+     * --repair then runs local search over the merged routes.
+     * With --export routes are also written to the file as JSON lines.
+     * With --synthetic seeded synthetic bookings are solved instead of LocationConfig.
+     * With --neighbours only arcs between each location's k nearest locations are kept.
+     * With --distance-cache road distances are looked up in memory and in the file before they are computed,
+     * straight line distances are cheaper to compute than to look up so they are never cached.
+     * With --road-graph distances are road distances over the graph file instead of straight lines.
+     * With --insertion the first solution is built by CheapestInsertion instead of GLOBAL_CHEAPEST_ARC.
+     * With --improve RouteImprover shortens every route of the solution before it is printed.
+     * With --plateau the search stops once the objective improved by less than 0.1% over the window,
+     * and the objective over time is printed.
+     * With --deadline AnytimeSolver searches with --metaheuristic (GUIDED_LOCAL_SEARCH by default) until the
+     * deadline or --solution-limit solutions and prints the best plan found.
+     * With --hilbert locations are numbered along a Hilbert curve before the matrix and the model are built,
+     * reported routes are mapped back to the original numbering. A matrix file written in the other numbering
+     * is refused.
+     * With --metrics phase timings and solver counters are written to the file in Prometheus text format.
+     */
     public static void main(String[] args) {
-        final List<Location> locations = LocationConfig.locations();
+        String matrixFile = null;
+        boolean portfolio = false;
+        int maxBookingsPerCluster = 0;
+        boolean repair = false;
+        Path exportFile = null;
+        int syntheticBookings = 0;
+        int neighbours = 0;
+        Path distanceCacheFile = null;
+        Path roadGraphFile = null;
+        boolean insertion = false;
+        boolean improve = false;
+        boolean hilbert = false;
+        Path metricsFile = null;
+        long plateauWindowMillis = 0;
+        long deadlineMillis = 0;
+        LocalSearchMetaheuristic.Value metaheuristic = LocalSearchMetaheuristic.Value.GUIDED_LOCAL_SEARCH;
+        long solutionLimit = 0;
+        for(String arg : args) {
+            if(arg.equals("--portfolio")) {
+                portfolio = true;
+            } else if(arg.startsWith("--clusters=")) {
+                maxBookingsPerCluster = Integer.parseInt(arg.substring("--clusters=".length()));
+            } else if(arg.equals("--repair")) {
+                repair = true;
+            } else if(arg.startsWith("--export=")) {
+                exportFile = Paths.get(arg.substring("--export=".length()));
+            } else if(arg.startsWith("--synthetic=")) {
+                syntheticBookings = Integer.parseInt(arg.substring("--synthetic=".length()));
+            } else if(arg.startsWith("--neighbours=")) {
+                neighbours = Integer.parseInt(arg.substring("--neighbours=".length()));
+            } else if(arg.startsWith("--distance-cache=")) {
+                distanceCacheFile = Paths.get(arg.substring("--distance-cache=".length()));
+            } else if(arg.startsWith("--road-graph=")) {
+                roadGraphFile = Paths.get(arg.substring("--road-graph=".length()));
+            } else if(arg.equals("--insertion")) {
+                insertion = true;
+            } else if(arg.equals("--improve")) {
+                improve = true;
+            } else if(arg.equals("--hilbert")) {
+                hilbert = true;
+            } else if(arg.startsWith("--plateau=")) {
+                plateauWindowMillis = Long.parseLong(arg.substring("--plateau=".length()));
+            } else if(arg.startsWith("--deadline=")) {
+                deadlineMillis = Long.parseLong(arg.substring("--deadline=".length()));
+            } else if(arg.startsWith("--metaheuristic=")) {
+                metaheuristic = LocalSearchMetaheuristic.Value.valueOf(arg.substring("--metaheuristic=".length()));
+            } else if(arg.startsWith("--solution-limit=")) {
+                solutionLimit = Long.parseLong(arg.substring("--solution-limit=".length()));
+            } else if(arg.startsWith("--metrics=")) {
+                metricsFile = Paths.get(arg.substring("--metrics=".length()));
+            } else {
+                matrixFile = arg;
+            }
+        }
 
-        final int numberOfVehicles = locations.stream()
-                .max(Comparator.comparing(Location::getBookingId)).get().getBookingId() * 2;
-        final int depotIndex = 0;
+        long start = LOCATION_LOADING.start();
+        final LocationStore loadedLocations = syntheticBookings > 0
+                ? new SyntheticBookings(SYNTHETIC_SEED, SYNTHETIC_CNF_RATIO).store(syntheticBookings)
+                : LocationStore.of(LocationConfig.locations());
+        final LocationOrder locationOrder = hilbert ? LocationOrder.hilbert(loadedLocations) : null;
+        final LocationStore locations = locationOrder != null ? locationOrder.getLocations() : loadedLocations;
+        LOCATION_LOADING.stop(start);
 
-        RoutingModel model = new RoutingModel(locations.size(), numberOfVehicles, depotIndex);
-        final Solver solver = model.solver();
-        model.setArcCostEvaluatorOfAllVehicles(new StraightLineEvaluator(locations));
-        addDistanceDimension(model, new StraightLineEvaluator(locations), locations);
-        addCapacityDimension(model, locations);
+        final DistanceProvider distanceProvider;
+        if(roadGraphFile != null) {
+            long startMilis = System.currentTimeMillis();
+            final RoadNetwork roadNetwork = RoadNetwork.load(roadGraphFile);
+            System.out.println("Road network of " + roadNetwork.getGraph().size() + " nodes loaded in "
+                    + (System.currentTimeMillis() - startMilis) + "ms");
+            distanceProvider = roadNetwork;
+        } else {
+            distanceProvider = new StraightLineDistance();
+        }
+        final DistanceMatrix distanceMatrix;
+        start = DISTANCE_MATRIX.start();
+        if(distanceCacheFile != null && roadGraphFile == null) {
+            System.out.println("Straight line distances are not cached, ignoring --distance-cache");
+        }
+        if(distanceCacheFile != null && roadGraphFile != null) {
+            try(DiskDistanceCache diskCache = DiskDistanceCache.openOrCreate(distanceCacheFile,
+                    CachedDistanceProvider.KEY_SCALE, distanceProvider.id(), DISTANCE_CACHE_DISK_ENTRIES)) {
+                final CachedDistanceProvider cachedDistanceProvider = new CachedDistanceProvider(distanceProvider,
+                        DISTANCE_CACHE_MEMORY_ENTRIES, diskCache);
+                distanceMatrix = distanceMatrix(matrixFile, locations, cachedDistanceProvider);
+                System.out.println("Distance cache: " + cachedDistanceProvider.getMemoryHits() + " memory hits, "
+                        + cachedDistanceProvider.getDiskHits() + " disk hits, "
+                        + cachedDistanceProvider.getMisses() + " computed");
+            }
+        } else {
+            distanceMatrix = distanceMatrix(matrixFile, locations, distanceProvider);
+        }
+        DISTANCE_MATRIX.stop(start);
 
-        markPickupsAndDropoffs(solver, model, locations);
-//        markBookingsThatShouldnBeFirstInRoutes(solver, model, locations);
+        if(portfolio) {
+            executePortfolioAndPrint(locations, distanceMatrix, arcPrunings(locations, distanceMatrix, neighbours),
+                    locationOrder, improve, exportFile);
+        } else if(maxBookingsPerCluster > 0) {
+            // cluster routes are found without --neighbours and could use arcs it removes, which would make the
+            // merged model refuse them, so only the shareability graph (which removes infeasible arcs) is applied
+            executeClustersAndPrint(locations, distanceMatrix, maxBookingsPerCluster,
+                    repair ? CLUSTER_REPAIR_TIME_LIMIT_MILLIS : 0, arcPrunings(locations, distanceMatrix, 0),
+                    locationOrder, improve, exportFile);
+        } else if(deadlineMillis > 0) {
+            executeAnytimeAndPrint(locations, distanceMatrix, new AnytimeSolver(FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC,
+                    metaheuristic, deadlineMillis, solutionLimit), arcPrunings(locations, distanceMatrix, neighbours),
+                    locationOrder, improve, exportFile);
+        } else if(insertion) {
+            executeInsertionAndPrint(locations, distanceMatrix, arcPrunings(locations, distanceMatrix, neighbours),
+                    locationOrder, improve, exportFile);
+        } else {
+            final ConvergenceMonitor convergenceMonitor = plateauWindowMillis > 0
+                    ? new ConvergenceMonitor(plateauWindowMillis, PLATEAU_MIN_IMPROVEMENT)
+                    : null;
+            executeAndPrint(locations, distanceMatrix, FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC,
+                    arcPrunings(locations, distanceMatrix, neighbours), convergenceMonitor, locationOrder, improve,
+                    exportFile);
+        }
 
-        executeAndPrint(locations, numberOfVehicles, model, FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC);
+        if(metricsFile != null) {
+            Metrics.global().writePrometheus(metricsFile);
+            System.out.println("Metrics written to " + metricsFile);
+        }
     }
 
-    private static void addDistanceDimension(RoutingModel routingModel, NodeEvaluator2 distanceCallback, List<Location> locations){
-        String distance = "distance";
-        int maximum_distance = Integer.MAX_VALUE;  // Maximum distance per vehicle.
-        routingModel.addDimension(
-                distanceCallback,
-                0,  // null slack
-                maximum_distance,
-                true,  // start cumul to zero
-                distance);
-        final RoutingDimension distanceDimension = routingModel.getDimensionOrDie(distance);
-        // Try to minimize the max distance among vehicles.
-        distanceDimension.setGlobalSpanCostCoefficient(100);
-
-        markBookingsThatShouldnBeFirstInRoutes(distanceDimension, routingModel.solver(), routingModel, locations);
+    private static DistanceMatrix distanceMatrix(String matrixFile, LocationStore locations,
+                                                 DistanceProvider distanceProvider) {
+        return matrixFile != null
+                ? MappedDistanceMatrix.openOrCreate(Paths.get(matrixFile), locations, distanceProvider)
+                : distanceProvider.distanceMatrix(locations);
     }
 
-    private static void addCapacityDimension(RoutingModel routingModel, List<Location> locations){
-        //"""Adds capacity constraint"""
-        String capacity = "capacity";
-
-        routingModel.addDimension(
-                new CapacityEvaluator(locations),
-                0, // null capacity slack
-                CAPACITY, // vehicle maximum capacities
-                true, // IDK
-                capacity);
+    private static ArcPruning[] arcPrunings(LocationStore locations, DistanceMatrix distanceMatrix, int neighbours) {
+        long startMilis = System.currentTimeMillis();
+        final ShareabilityGraph shareabilityGraph = ShareabilityGraph.compute(locations, distanceMatrix);
+        System.out.println("Shareable booking pairs: " + shareabilityGraph.countShareablePairs()
+                + " (" + (System.currentTimeMillis() - startMilis) + " milis)");
+        return neighbours > 0
+                ? new ArcPruning[] {shareabilityGraph, new NearestNeighbourPruning(neighbours)}
+                : new ArcPruning[] {shareabilityGraph};
     }
 
-    private static void executeAndPrint(List<Location> locations, int numberOfVehicles, RoutingModel model,
-                                        FirstSolutionStrategy.Value firstSolutionStrategyValue) {
+    private static void executeAndPrint(LocationStore locations, DistanceMatrix distanceMatrix,
+                                        FirstSolutionStrategy.Value firstSolutionStrategyValue,
+                                        ArcPruning[] arcPrunings, ConvergenceMonitor convergenceMonitor,
+                                        LocationOrder locationOrder, boolean improve, Path exportFile) {
         long startMilis = System.currentTimeMillis();
-        RoutingSearchParameters search_parameters =
-                RoutingSearchParameters.newBuilder()
-                        .mergeFrom(RoutingModel.defaultSearchParameters())
-                        .setFirstSolutionStrategy(firstSolutionStrategyValue)
-                        .build();
-
-        Assignment solution = model.solveWithParameters(search_parameters);
-        if(solution != null) {
-            ResultPrinter.printSolution(numberOfVehicles, model, solution, locations);
+        final FleetSizeEstimator.Solved solved = FleetSizeEstimator.solve(locations, distanceMatrix, firstSolutionStrategyValue,
+                convergenceMonitor, arcPrunings);
+        if(convergenceMonitor != null) {
+            System.out.println("Objective over time: " + convergenceMonitor.getImprovements());
+            if(convergenceMonitor.isStoppedOnPlateau()) {
+                System.out.println("Search stopped on plateau");
+            }
+        }
+        if(solved != null) {
+            final PoolingModel poolingModel = solved.getModel();
+            report(poolingModel, solved.getSolution(), locationOrder, improve, exportFile);
+            System.out.println("Vehicles: " + poolingModel.getNumberOfVehicles());
             System.out.println(firstSolutionStrategyValue.toString() + " GAVE RESULT");
             long endMilis = System.currentTimeMillis();
             System.out.println("Total exec time: " + (endMilis - startMilis) + " milis");
@@ -101,59 +251,102 @@ class PoolingVRP {
 
     }
 
-    private static void markBookingsThatShouldnBeFirstInRoutes(RoutingDimension dimension, Solver solver, RoutingModel model, List<Location> locations) {
-        for(int i = 0; i < locations.size(); i++) {
-            final Location location = locations.get(i);
-            if(location.isCnf()) {
-                dimension.SetCumulVarSoftLowerBound(i, 1, 100_000_000);
-            }
+    private static void executeInsertionAndPrint(LocationStore locations, DistanceMatrix distanceMatrix,
+                                                 ArcPruning[] arcPrunings, LocationOrder locationOrder,
+                                                 boolean improve, Path exportFile) {
+        long startMilis = System.currentTimeMillis();
+        final FleetSizeEstimator.Solved solved = CheapestInsertion.solve(locations, distanceMatrix, arcPrunings);
+        if(solved != null) {
+            final PoolingModel poolingModel = solved.getModel();
+            report(poolingModel, solved.getSolution(), locationOrder, improve, exportFile);
+            System.out.println("Vehicles: " + poolingModel.getNumberOfVehicles());
+            System.out.println("CHEAPEST INSERTION GAVE RESULT");
+            long endMilis = System.currentTimeMillis();
+            System.out.println("Total exec time: " + (endMilis - startMilis) + " milis");
+        } else {
+            System.out.println("CHEAPEST INSERTION couldnt give result");
         }
     }
 
-    private static void markPickupsAndDropoffs(Solver solver, RoutingModel model, List<Location> locations) {
-        for(int i = 0; i< locations.size(); i++) {
-            Location location = locations.get(i);
-            if(location.getLocationType() == Location.LocationType.PICKUP) {
-                int pickupLocationIndex = i;
-                Location pickupLocation = location;
-
-                Integer dropoffLocationIndex = LocationUtils.findLocationIndex(locations, pickupLocation.getBookingId(), Location.LocationType.DROPOFF);
-                if(dropoffLocationIndex == null) {
-                    throw new RuntimeException("Booking " + pickupLocation.getBookingId() + " has pickup but no dropoff");
-                }
-
-                markAsPickupDropoff(solver, model, pickupLocationIndex, dropoffLocationIndex, locations);
-
-                final RoutingDimension distanceDimension = model.getDimensionOrDie("distance");
-
-                distanceDimension.cumulVar(model.nodeToIndex(i)).setRange(0, 1500);
-
-            }
+    private static void executeAnytimeAndPrint(LocationStore locations, DistanceMatrix distanceMatrix,
+                                               AnytimeSolver anytimeSolver, ArcPruning[] arcPrunings,
+                                               LocationOrder locationOrder, boolean improve, Path exportFile) {
+        long startMilis = System.currentTimeMillis();
+        final FleetSizeEstimator.Solved solved = anytimeSolver.solve(locations, distanceMatrix, arcPrunings);
+        if(solved != null) {
+            final PoolingModel poolingModel = solved.getModel();
+            report(poolingModel, solved.getSolution(), locationOrder, improve, exportFile);
+            System.out.println("Vehicles: " + poolingModel.getNumberOfVehicles());
+            System.out.println("Objective: " + solved.getSolution().objectiveValue());
+            long endMilis = System.currentTimeMillis();
+            System.out.println("Total exec time: " + (endMilis - startMilis) + " milis");
+        } else {
+            System.out.println("Anytime solve couldnt give result");
         }
     }
 
-    private static void markAsPickupDropoff(Solver solver, RoutingModel model, int pickupArrayIndex, int dropoffArrayIndex, List<Location> locations) {
-        long pickupNodeIndex = model.nodeToIndex(pickupArrayIndex);
-        long deliveryNodeIndex = model.nodeToIndex(dropoffArrayIndex);
-
-        model.AddPickupAndDelivery(pickupArrayIndex, dropoffArrayIndex);
-
-        solver.addConstraint(solver.makeLessOrEqual(
-                model.cumulVar(pickupNodeIndex, "distance"),
-                model.cumulVar(deliveryNodeIndex, "distance")));
+    private static void executePortfolioAndPrint(LocationStore locations, DistanceMatrix distanceMatrix,
+                                                 ArcPruning[] arcPrunings, LocationOrder locationOrder,
+                                                 boolean improve, Path exportFile) {
+        long startMilis = System.currentTimeMillis();
+        final StrategyPortfolio.Result result = StrategyPortfolio.solve(locations, distanceMatrix, PORTFOLIO_STRATEGIES,
+                PORTFOLIO_TIME_BUDGET_MILLIS, arcPrunings);
+        if(result != null) {
+            final PoolingModel poolingModel = result.getModel();
+            report(poolingModel, result.getSolution(), locationOrder, improve, exportFile);
+            System.out.println("Vehicles: " + poolingModel.getNumberOfVehicles());
+            System.out.println(result.getStrategy().toString() + " GAVE BEST RESULT");
+            long endMilis = System.currentTimeMillis();
+            System.out.println("Total exec time: " + (endMilis - startMilis) + " milis");
+        } else {
+            System.out.println("None of " + PORTFOLIO_STRATEGIES + " could give result");
+        }
+    }
 
-        solver.addConstraint(solver.makeEquality(
-                model.vehicleVar(pickupNodeIndex),
-                model.vehicleVar(deliveryNodeIndex)));
+    private static void executeClustersAndPrint(LocationStore locations, DistanceMatrix distanceMatrix,
+                                                int maxBookingsPerCluster, long repairTimeLimitMillis,
+                                                ArcPruning[] arcPrunings, LocationOrder locationOrder,
+                                                boolean improve, Path exportFile) {
+        long startMilis = System.currentTimeMillis();
+        final int[][] clusterRoutes = ClusterDecomposition.solve(locations, distanceMatrix, maxBookingsPerCluster,
+                FirstSolutionStrategy.Value.GLOBAL_CHEAPEST_ARC, CLUSTER_TIME_LIMIT_MILLIS);
 
-        //for every booking, new trip length shouldn't be larger than original * 1.5
-        final long bookingDistance = LocationUtils.getLocationDistance(locations.get(pickupArrayIndex), locations.get(dropoffArrayIndex));
-        final double maxAllowedBookingDistance = bookingDistance * 1.5;
+        // a model needs at least one vehicle, even without bookings
+        final int[][] routes = clusterRoutes.length > 0 ? clusterRoutes : new int[][]{new int[0]};
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix, routes.length, arcPrunings);
+        final Assignment solution = ClusterDecomposition.merge(poolingModel, routes, repairTimeLimitMillis);
+        if(solution != null) {
+            report(poolingModel, solution, locationOrder, improve, exportFile);
+            System.out.println("CLUSTERS OF " + maxBookingsPerCluster + " GAVE RESULT");
+            long endMilis = System.currentTimeMillis();
+            System.out.println("Total exec time: " + (endMilis - startMilis) + " milis");
+        } else {
+            System.out.println("Merged cluster routes couldnt give result");
+        }
+    }
 
-        final IntExpr pickupToDropoffDistance = solver.makeDifference(
-                model.cumulVar(deliveryNodeIndex, "distance"),
-                model.cumulVar(pickupNodeIndex, "distance"));
-        solver.addConstraint(
-                solver.makeLessOrEqual(pickupToDropoffDistance, (int)maxAllowedBookingDistance));
+    private static void report(PoolingModel poolingModel, Assignment solution, LocationOrder locationOrder,
+                               boolean improve, Path exportFile) {
+        final LocationStore locations = poolingModel.getLocations();
+        if(improve) {
+            long startMilis = System.currentTimeMillis();
+            final long cost = solution.objectiveValue();
+            solution = RouteImprover.improve(poolingModel, solution);
+            System.out.println("Routes improved from " + cost + " to " + solution.objectiveValue() + " ("
+                    + (System.currentTimeMillis() - startMilis) + " milis)");
+        }
+        final long start = PRINTING.start();
+        RouteTable routes = RouteTable.extract(poolingModel.getNumberOfVehicles(), poolingModel.getModel(), solution, locations);
+        LocationStore reportedLocations = locations;
+        if(locationOrder != null) {
+            routes = locationOrder.toOriginal(routes);
+            reportedLocations = locationOrder.getOriginalLocations();
+        }
+        final CompletableFuture<Void> printed = ResultPrinter.print(routes, reportedLocations);
+        final CompletableFuture<Void> exported = exportFile != null
+                ? ResultPrinter.exportJsonLines(routes, reportedLocations, exportFile)
+                : CompletableFuture.completedFuture(null);
+        CompletableFuture.allOf(printed, exported).join();
+        PRINTING.stop(start);
     }
 }
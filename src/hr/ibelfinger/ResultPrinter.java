@@ -3,97 +3,157 @@ package hr.ibelfinger;
 import com.google.ortools.constraintsolver.Assignment;
 import com.google.ortools.constraintsolver.RoutingModel;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
 
 public class ResultPrinter {
+    // Formatting and writing happen on this thread, so the caller only pays for reading the assignment
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "result-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     //###########
     //# Printer #
     //###########
-    public static void printSolution(int numberOfVehicles, RoutingModel routing, Assignment assignment, List<Location> locations) {
-        //"""Print routes on console."""
-
-        Map<Integer, Integer> bookingNumberMap = new HashMap<>();
-
-        int total_distance = 0;
-        for (int vehicle_id = 0; vehicle_id < numberOfVehicles; vehicle_id++) {
-            long index = routing.start(vehicle_id);
-            String plan_output = "Route for vehicle " + vehicle_id + ":\n";
-
-            List<Location> route = new ArrayList<>();
-
-            int route_dist = 0;
-            int routeLength = 0;
-            while (!routing.isEnd(index)) {
-                final int node_index = routing.indexToNode(index);
-                final int next_node_index = routing.indexToNode(
-                        assignment.value(routing.nextVar(index)));
-                int lengthBefore = route_dist;
-                route_dist += routing.getArcCostForVehicle(node_index, next_node_index, vehicle_id);
-                final Location location = locations.get(node_index);
-
-                index = assignment.value(routing.nextVar(index));
-                final long capacity = assignment.value(routing.cumulVar(index, "capacity"));
-
-                if(location.getLocationType() != Location.LocationType.DEPOT) {
-                    route.add(location);
-                    plan_output += " " + location + " (capacity: "+capacity + ", distance: " + lengthBefore + ") ->";
-                    routeLength++;
-                }
+    public static CompletableFuture<Void> printSolution(int numberOfVehicles, RoutingModel routing, Assignment assignment, List<Location> locations) {
+        return printSolution(numberOfVehicles, routing, assignment, LocationStore.of(locations));
+    }
 
+    public static CompletableFuture<Void> printSolution(int numberOfVehicles, RoutingModel routing, Assignment assignment, LocationStore locations) {
+        return print(RouteTable.extract(numberOfVehicles, routing, assignment, locations), locations);
+    }
 
-            }
+    /**
+     * Prints routes on console (or the given stream) in the background.
+     * The returned future completes once everything is written.
+     */
+    public static CompletableFuture<Void> print(RouteTable routes, LocationStore locations) {
+        return print(routes, locations, System.out);
+    }
 
-            bookingNumberMap.put(routeLength, bookingNumberMap.getOrDefault(routeLength, 0) + 1);
-            final Map<Integer, Double> detours = getDetours(route);
+    public static CompletableFuture<Void> print(RouteTable routes, LocationStore locations, PrintStream out) {
+        return CompletableFuture.runAsync(() -> write(routes, locations, out), WRITER);
+    }
 
-            for(Map.Entry<Integer, Double> entry : detours.entrySet()) {
-                System.out.println("BookingId: " + entry.getKey() + " , detour ratio: " + entry.getValue());
+    /**
+     * Writes one JSON object per vehicle to the file in the background:
+     * {"vehicle":0,"distance":123,"stops":[{"stop":"P1","load":1,"distance":0},...]}
+     */
+    public static CompletableFuture<Void> exportJsonLines(RouteTable routes, LocationStore locations, Path file) {
+        return CompletableFuture.runAsync(() -> {
+            try(BufferedWriter writer = Files.newBufferedWriter(file)) {
+                final StringBuilder line = new StringBuilder();
+                for(int vehicle = 0; vehicle < routes.getNumberOfVehicles(); vehicle++) {
+                    line.setLength(0);
+                    line.append("{\"vehicle\":").append(vehicle)
+                            .append(",\"distance\":").append(routes.routeDistance(vehicle))
+                            .append(",\"stops\":[");
+                    for(int stop = routes.routeStart(vehicle); stop < routes.routeEnd(vehicle); stop++) {
+                        if(stop > routes.routeStart(vehicle)) {
+                            line.append(',');
+                        }
+                        line.append("{\"stop\":\"");
+                        appendLocation(line, locations, routes.node(stop));
+                        line.append("\",\"load\":").append(routes.load(stop))
+                                .append(",\"distance\":").append(routes.distance(stop)).append('}');
+                    }
+                    line.append("]}\n");
+                    writer.append(line);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            plan_output += " "  + routing.indexToNode(index) + "\n";
-            plan_output += "Distance of route: " + route_dist + "m\n";
-            System.out.println(plan_output);
-            total_distance += route_dist;
-
-
+        }, WRITER);
+    }
 
+    private static void write(RouteTable routes, LocationStore locations, PrintStream out) {
+        final int[] routeSizes = new int[locations.size() + 1];
+
+        // vehicles are formatted in parallel, then printed in order
+        final String[] vehicleOutputs = new String[routes.getNumberOfVehicles()];
+        IntStream.range(0, routes.getNumberOfVehicles()).parallel().forEach(vehicle_id -> {
+            final StringBuilder vehicle_output = new StringBuilder();
+            appendDetours(vehicle_output, locations, routes, vehicle_id);
+
+            vehicle_output.append("Route for vehicle ").append(vehicle_id).append(":\n");
+            for(int stop = routes.routeStart(vehicle_id); stop < routes.routeEnd(vehicle_id); stop++) {
+                vehicle_output.append(' ');
+                appendLocation(vehicle_output, locations, routes.node(stop));
+                vehicle_output.append(" (capacity: ").append(routes.load(stop))
+                        .append(", distance: ").append(routes.distance(stop)).append(") ->");
+            }
+            vehicle_output.append(' ').append(PoolingModel.DEPOT_INDEX).append('\n');
+            vehicle_output.append("Distance of route: ").append(routes.routeDistance(vehicle_id)).append("m\n\n");
+            vehicleOutputs[vehicle_id] = vehicle_output.toString();
+        });
+
+        long total_distance = 0;
+        for (int vehicle_id = 0; vehicle_id < routes.getNumberOfVehicles(); vehicle_id++) {
+            out.print(vehicleOutputs[vehicle_id]);
+            routeSizes[routes.routeLength(vehicle_id)]++;
+            total_distance += routes.routeDistance(vehicle_id);
         }
-        System.out.println("Route sizes: " + bookingNumberMap);
-        System.out.println("Total distance of all routes: " + total_distance + "m");
-
 
+        final StringBuilder plan_output = new StringBuilder();
+        plan_output.append("Route sizes: {");
+        boolean first = true;
+        for(int routeLength = 0; routeLength < routeSizes.length; routeLength++) {
+            if(routeSizes[routeLength] > 0) {
+                plan_output.append(first ? "" : ", ").append(routeLength).append('=').append(routeSizes[routeLength]);
+                first = false;
+            }
+        }
+        plan_output.append("}\n");
+        plan_output.append("Total distance of all routes: ").append(total_distance).append("m\n");
+        out.print(plan_output);
+        out.flush();
     }
 
-    private static Map<Integer, Double> getDetours(List<Location> route) {
-        Set<Integer> bookingIds = route.stream().map(Location::getBookingId).collect(Collectors.toSet());
-
-        Map<Integer, Double> detourRatios = new HashMap<>();
-
-        for(Integer bookingId : bookingIds) {
-            Integer pickupLocationIndex = LocationUtils.findLocationIndex(route, bookingId, Location.LocationType.PICKUP);
-            Location pickupLocation = route.get(pickupLocationIndex);
-
-            Integer dropoffLocationIndex = LocationUtils.findLocationIndex(route, bookingId, Location.LocationType.DROPOFF);
-            Location dropoffLocation = route.get(dropoffLocationIndex);
-
-            final long originalBookingDistance = LocationUtils.getLocationDistance(pickupLocation, dropoffLocation);
-            long bookingDistanceWithDetour = 0;
-            for(int i = pickupLocationIndex; i <= dropoffLocationIndex - 1; i ++) {
-                Location firstLocation = route.get(i);
-                Location secondLocation = route.get(i + 1);
-
-                bookingDistanceWithDetour += LocationUtils.getLocationDistance(firstLocation, secondLocation);
+    private static void appendLocation(StringBuilder output, LocationStore locations, int node) {
+        output.append(locations.getLocationType(node).name().charAt(0)).append(locations.getBookingId(node));
+    }
 
+    private static void appendDetours(StringBuilder output, LocationStore locations, RouteTable routes, int vehicle) {
+        final int routeStart = routes.routeStart(vehicle);
+        final int routeLength = routes.routeLength(vehicle);
+        final BookingIndex bookingIndex = new BookingIndex(routeLength);
+        // straight line distance driven from the first stop to every stop, a detour is the difference of two
+        final long[] routeDistances = new long[routeLength];
+        for(int i = 0; i < routeLength; i++) {
+            final int node = routes.node(routeStart + i);
+            bookingIndex.putIfAbsent(locations.getBookingId(node), locations.getLocationType(node), i);
+            if(i > 0) {
+                routeDistances[i] = routeDistances[i - 1]
+                        + LocationUtils.getLocationDistance(locations, routes.node(routeStart + i - 1), node);
             }
-
-            detourRatios.put(bookingId, ((double) bookingDistanceWithDetour / originalBookingDistance));
         }
 
-        return detourRatios;
+        for(int position = 0; position < routeLength; position++) {
+            final int node = routes.node(routeStart + position);
+            if(locations.getLocationType(node) != Location.LocationType.PICKUP) {
+                continue;
+            }
+            final int bookingId = locations.getBookingId(node);
+            int pickupLocationIndex = position;
+            int dropoffLocationIndex = bookingIndex.indexOf(bookingId, Location.LocationType.DROPOFF);
+
+            final long originalBookingDistance = LocationUtils.getLocationDistance(locations,
+                    routes.node(routeStart + pickupLocationIndex), routes.node(routeStart + dropoffLocationIndex));
+            final long bookingDistanceWithDetour = routeDistances[dropoffLocationIndex] - routeDistances[pickupLocationIndex];
 
+            output.append("BookingId: ").append(bookingId).append(" , detour ratio: ")
+                    .append((double) bookingDistanceWithDetour / originalBookingDistance).append('\n');
+        }
     }
 }
@@ -0,0 +1,343 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import com.google.ortools.constraintsolver.VoidToBoolean;
+import hr.ibelfinger.distance.DistanceProvider;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Re-optimises a continuous stream of bookings on a fixed schedule. Every epoch solves all open bookings
+ * in a new PoolingModel, warm started from the previous plan, and publishes the result.
+ * <p>
+ * Vehicles can't be re-routed away from stops they already visited or were sent to. Each route starts with
+ * its visited stops (kept until the booking is dropped off, so seats and detours still count them) followed by
+ * the next committedStops stops, and that prefix is fixed with next variable constraints from the vehicle start.
+ * <p>
+ * An epoch never runs longer than its budget: model building counts against it and the search is stopped at the
+ * deadline. If the search found nothing better the previous plan with new bookings on free vehicles is kept.
+ * Bookings and visits can be reported from any thread, everything else runs on the dispatcher thread.
+ */
+public class RollingHorizonDispatcher implements AutoCloseable {
+
+    /**
+     * Routes published after an epoch. Routes start with their locked stops.
+     */
+    public static class Plan {
+        private final long epoch;
+        private final Location[][] routes;
+        private final int[] lockedStops;
+        private final boolean solved;
+        private final long elapsedMillis;
+
+        Plan(long epoch, Location[][] routes, int[] lockedStops, boolean solved, long elapsedMillis) {
+            this.epoch = epoch;
+            this.routes = routes;
+            this.lockedStops = lockedStops;
+            this.solved = solved;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public int getNumberOfVehicles() {
+            return routes.length;
+        }
+
+        public Location[] getRoute(int vehicle) {
+            return routes[vehicle].clone();
+        }
+
+        public int getLockedStops(int vehicle) {
+            return lockedStops[vehicle];
+        }
+
+        /**
+         * False when the search found no solution within the budget and the warm start routes were kept.
+         */
+        public boolean isSolved() {
+            return solved;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+    private final Location depot;
+    private final DistanceProvider distanceProvider;
+    private final FirstSolutionStrategy.Value firstSolutionStrategy;
+    private final int committedStops;
+    private final long epochBudgetMillis;
+    private final Consumer<Plan> planListener;
+    private final ConcurrentLinkedQueue<Location[]> submittedBookings = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Location> visitedStops = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService scheduler;
+
+    // dispatcher thread only
+    private final List<List<Location>> routes = new ArrayList<>();
+    private final List<Integer> visitedCounts = new ArrayList<>();
+    private final List<Location[]> unplannedBookings = new ArrayList<>();
+    private long epoch;
+
+    private volatile Plan plan;
+
+    /**
+     * Epochs don't start until start is called. The listener is called on the dispatcher thread after every epoch.
+     */
+    public RollingHorizonDispatcher(Location depot, DistanceProvider distanceProvider, int numberOfVehicles,
+                                    FirstSolutionStrategy.Value firstSolutionStrategy, int committedStops,
+                                    long epochBudgetMillis, Consumer<Plan> planListener) {
+        if(depot.getLocationType() != Location.LocationType.DEPOT) {
+            throw new IllegalArgumentException("Expected depot, got " + depot);
+        }
+        this.depot = depot;
+        this.distanceProvider = distanceProvider;
+        this.firstSolutionStrategy = firstSolutionStrategy;
+        this.committedStops = committedStops;
+        this.epochBudgetMillis = epochBudgetMillis;
+        this.planListener = planListener;
+        for(int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+            routes.add(new ArrayList<>());
+            visitedCounts.add(0);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "rolling-horizon-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs an epoch every interval. An epoch that overruns delays the next one, epochs never overlap.
+     */
+    public void start(long intervalMillis) {
+        if(intervalMillis < epochBudgetMillis) {
+            throw new IllegalArgumentException("Interval " + intervalMillis + "ms is shorter than the epoch budget "
+                    + epochBudgetMillis + "ms");
+        }
+        scheduler.scheduleAtFixedRate(this::runEpochSafely, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void submit(Location pickup, Location dropoff) {
+        if(pickup.getBookingId() != dropoff.getBookingId()
+                || pickup.getLocationType() != Location.LocationType.PICKUP
+                || dropoff.getLocationType() != Location.LocationType.DROPOFF) {
+            throw new IllegalArgumentException("Expected pickup and dropoff of one booking, got " + pickup + " and " + dropoff);
+        }
+        submittedBookings.add(new Location[]{pickup, dropoff});
+    }
+
+    /**
+     * Bookings as {pickup, dropoff} pairs, as handed on by BookingIntake.
+     */
+    public void submitAll(List<Location[]> bookings) {
+        for(Location[] booking : bookings) {
+            submit(booking[0], booking[1]);
+        }
+    }
+
+    /**
+     * A vehicle reached one of its stops. The stop has to be one of the published Location objects,
+     * reports of stops that aren't planned are ignored.
+     */
+    public void visited(Location stop) {
+        visitedStops.add(stop);
+    }
+
+    /**
+     * Latest published plan, null before the first epoch.
+     */
+    public Plan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    // an exception would cancel the schedule, so a failed epoch is reported and the next one tries again
+    private void runEpochSafely() {
+        try {
+            runEpoch();
+        } catch (RuntimeException e) {
+            System.err.println("Epoch " + epoch + " failed: " + e);
+        }
+    }
+
+    void runEpoch() {
+        final long startMillis = System.currentTimeMillis();
+        final long deadlineMillis = startMillis + epochBudgetMillis;
+        epoch++;
+        applyVisits();
+        for(Location[] booking; (booking = submittedBookings.poll()) != null; ) {
+            unplannedBookings.add(booking);
+        }
+
+        // locations of this epoch: depot, planned stops in route order, then the new bookings
+        final List<Location> stops = new ArrayList<>();
+        stops.add(depot);
+        for(List<Location> route : routes) {
+            stops.addAll(route);
+        }
+        for(Location[] booking : unplannedBookings) {
+            stops.add(booking[0]);
+            stops.add(booking[1]);
+        }
+        final LocationStore locations = LocationStore.of(stops);
+        final Map<Location, Integer> indices = new IdentityHashMap<>();
+        for(int index = 0; index < stops.size(); index++) {
+            indices.put(stops.get(index), index);
+        }
+
+        // warm start: previous routes, every new booking alone on a free vehicle, which is always feasible
+        final List<List<Location>> warmStart = new ArrayList<>();
+        for(List<Location> route : routes) {
+            warmStart.add(new ArrayList<>(route));
+        }
+        int freeVehicle = 0;
+        for(Location[] booking : unplannedBookings) {
+            while(freeVehicle < warmStart.size() && !warmStart.get(freeVehicle).isEmpty()) {
+                freeVehicle++;
+            }
+            if(freeVehicle == warmStart.size()) {
+                warmStart.add(new ArrayList<>());
+            }
+            warmStart.get(freeVehicle).add(booking[0]);
+            warmStart.get(freeVehicle).add(booking[1]);
+        }
+        final int numberOfVehicles = warmStart.size();
+        // only stops of the published routes are committed, new bookings on free vehicles stay movable
+        final int[] lockedStops = new int[numberOfVehicles];
+        for(int vehicle = 0; vehicle < routes.size(); vehicle++) {
+            lockedStops[vehicle] = Math.min(routes.get(vehicle).size(), visitedCounts.get(vehicle) + committedStops);
+        }
+
+        if(stops.size() == 1) {
+            publish(warmStart, lockedStops, true, startMillis);
+            return;
+        }
+
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceProvider.distanceMatrix(locations),
+                numberOfVehicles);
+        final RoutingModel model = poolingModel.getModel();
+        final int[][] warmStartRoutes = new int[numberOfVehicles][];
+        for(int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+            final List<Location> route = warmStart.get(vehicle);
+            warmStartRoutes[vehicle] = new int[route.size()];
+            long index = model.start(vehicle);
+            for(int stop = 0; stop < route.size(); stop++) {
+                warmStartRoutes[vehicle][stop] = indices.get(route.get(stop));
+                if(stop < lockedStops[vehicle]) {
+                    final long next = model.nodeToIndex(warmStartRoutes[vehicle][stop]);
+                    model.nextVar(index).setValue(next);
+                    index = next;
+                }
+            }
+        }
+
+        final VoidToBoolean deadlineCheck = new VoidToBoolean() {
+            @Override
+            public boolean run() {
+                return System.currentTimeMillis() >= deadlineMillis;
+            }
+        };
+        model.addSearchMonitor(model.solver().makeCustomLimit(deadlineCheck));
+        final RoutingSearchParameters search_parameters = RoutingSearchParameters.newBuilder()
+                .mergeFrom(RoutingModel.defaultSearchParameters())
+                .setFirstSolutionStrategy(firstSolutionStrategy)
+                .setTimeLimitMs(Math.max(1, deadlineMillis - System.currentTimeMillis()))
+                .build();
+        model.CloseModelWithParameters(search_parameters);
+
+        final Assignment initialSolution = model.ReadAssignmentFromRoutes(warmStartRoutes, true);
+        final Assignment solution = poolingModel.solveFromAssignment(initialSolution, search_parameters);
+        Reference.reachabilityFence(deadlineCheck);
+
+        if(solution == null) {
+            publish(warmStart, lockedStops, false, startMillis);
+            return;
+        }
+        final int[][] solvedRoutes = poolingModel.routes(solution);
+        final List<List<Location>> plannedRoutes = new ArrayList<>();
+        for(int[] solvedRoute : solvedRoutes) {
+            final List<Location> route = new ArrayList<>(solvedRoute.length);
+            for(int index : solvedRoute) {
+                route.add(stops.get(index));
+            }
+            plannedRoutes.add(route);
+        }
+        publish(plannedRoutes, lockedStops, true, startMillis);
+    }
+
+    private void publish(List<List<Location>> plannedRoutes, int[] lockedStops, boolean solved, long startMillis) {
+        routes.clear();
+        routes.addAll(plannedRoutes);
+        while(visitedCounts.size() < routes.size()) {
+            visitedCounts.add(0);
+        }
+        unplannedBookings.clear();
+        final Location[][] published = new Location[routes.size()][];
+        for(int vehicle = 0; vehicle < routes.size(); vehicle++) {
+            published[vehicle] = routes.get(vehicle).toArray(new Location[0]);
+        }
+        plan = new Plan(epoch, published, lockedStops, solved, System.currentTimeMillis() - startMillis);
+        if(planListener != null) {
+            planListener.accept(plan);
+        }
+    }
+
+    // visited stops move to the end of their route's visited prefix, finished bookings leave the route
+    private void applyVisits() {
+        for(Location stop; (stop = visitedStops.poll()) != null; ) {
+            for(int vehicle = 0; vehicle < routes.size(); vehicle++) {
+                final List<Location> route = routes.get(vehicle);
+                final int position = indexOf(route, stop);
+                if(position < 0) {
+                    continue;
+                }
+                int visitedCount = visitedCounts.get(vehicle);
+                if(position >= visitedCount) {
+                    route.remove(position);
+                    route.add(visitedCount++, stop);
+                }
+                if(stop.getLocationType() == Location.LocationType.DROPOFF) {
+                    for(int i = route.size() - 1; i >= 0; i--) {
+                        if(route.get(i).getBookingId() == stop.getBookingId()) {
+                            route.remove(i);
+                            if(i < visitedCount) {
+                                visitedCount--;
+                            }
+                        }
+                    }
+                }
+                visitedCounts.set(vehicle, visitedCount);
+                break;
+            }
+        }
+    }
+
+    private static int indexOf(List<Location> route, Location stop) {
+        for(int i = 0; i < route.size(); i++) {
+            if(route.get(i) == stop) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
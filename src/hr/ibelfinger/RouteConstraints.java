@@ -0,0 +1,140 @@
+package hr.ibelfinger;
+
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.Arrays;
+
+/**
+ * Rules PoolingModel puts on a single route, checked in plain Java for heuristics that build or change routes
+ * outside the solver. A route is an array of location indices without depot, and cumuls start at zero at the
+ * depot as in the distance dimension.
+ */
+public class RouteConstraints {
+    private static final int NO_PICKUP = -1;
+
+    private final LocationStore locations;
+    private final DistanceMatrix distanceMatrix;
+    // per booking
+    private final int[] pickups;
+    private final int[] dropoffs;
+    // per location
+    private final int[] pickupOf;
+    private final long[] maxBookingDistances;
+
+    private RouteConstraints(LocationStore locations, DistanceMatrix distanceMatrix, int[] pickups, int[] dropoffs,
+                             int[] pickupOf, long[] maxBookingDistances) {
+        this.locations = locations;
+        this.distanceMatrix = distanceMatrix;
+        this.pickups = pickups;
+        this.dropoffs = dropoffs;
+        this.pickupOf = pickupOf;
+        this.maxBookingDistances = maxBookingDistances;
+    }
+
+    public static RouteConstraints of(LocationStore locations, DistanceMatrix distanceMatrix) {
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        int bookings = 0;
+        final int[] pickups = new int[locations.size()];
+        final int[] dropoffs = new int[locations.size()];
+        final int[] pickupOf = new int[locations.size()];
+        final long[] maxBookingDistances = new long[locations.size()];
+        Arrays.fill(pickupOf, NO_PICKUP);
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                final int dropoff = bookingIndex.indexOf(locations.getBookingId(i), Location.LocationType.DROPOFF);
+                if(dropoff == BookingIndex.NOT_FOUND) {
+                    throw new RuntimeException("Booking " + locations.getBookingId(i) + " has pickup but no dropoff");
+                }
+                pickups[bookings] = i;
+                dropoffs[bookings] = dropoff;
+                bookings++;
+                pickupOf[dropoff] = i;
+                maxBookingDistances[dropoff] = PoolingModel.maxBookingDistance(distanceMatrix.distance(i, dropoff));
+            }
+        }
+        return new RouteConstraints(locations, distanceMatrix, Arrays.copyOf(pickups, bookings),
+                Arrays.copyOf(dropoffs, bookings), pickupOf, maxBookingDistances);
+    }
+
+    public DistanceMatrix getDistanceMatrix() {
+        return distanceMatrix;
+    }
+
+    public int bookings() {
+        return pickups.length;
+    }
+
+    public int pickup(int booking) {
+        return pickups[booking];
+    }
+
+    public int dropoff(int booking) {
+        return dropoffs[booking];
+    }
+
+    /**
+     * Most stops a route can have before capacity runs out.
+     */
+    public static int maxStops() {
+        return 2 * PoolingModel.CAPACITY / Math.max(1, Location.LocationType.PICKUP.capacityModifier());
+    }
+
+    /**
+     * Pickups before their dropoffs, CAPACITY, MAX_PICKUP_DISTANCE and the detour rule, the same as the
+     * pickup and delivery constraints and the capacity and distance dimensions of PoolingModel.
+     */
+    public boolean isFeasible(int[] stops, int length) {
+        final long[] cumuls = new long[length];
+        long distance = 0;
+        long load = 0;
+        int previous = PoolingModel.DEPOT_INDEX;
+        for(int position = 0; position < length; position++) {
+            final int stop = stops[position];
+            distance += distanceMatrix.distance(previous, stop);
+            cumuls[position] = distance;
+            if(locations.getLocationType(stop) == Location.LocationType.PICKUP) {
+                if(distance > PoolingModel.MAX_PICKUP_DISTANCE) {
+                    return false;
+                }
+            } else if(pickupOf[stop] != NO_PICKUP) {
+                final int pickupPosition = positionOf(stops, position, pickupOf[stop]);
+                if(pickupPosition < 0 || distance - cumuls[pickupPosition] > maxBookingDistances[stop]) {
+                    return false;
+                }
+            }
+            load += locations.getLocationType(stop).capacityModifier();
+            if(load > PoolingModel.CAPACITY) {
+                return false;
+            }
+            previous = stop;
+        }
+        return true;
+    }
+
+    /**
+     * Arc costs of the route including the legs from and to the depot, plus the penalty PoolingModel gives
+     * a CNF booking at the start of a route.
+     */
+    public long cost(int[] stops, int length) {
+        long distance = 0;
+        long penalty = 0;
+        int previous = PoolingModel.DEPOT_INDEX;
+        for(int position = 0; position < length; position++) {
+            distance += distanceMatrix.distance(previous, stops[position]);
+            if(distance < PoolingModel.CNF_MIN_DISTANCE && locations.isCnf(stops[position])) {
+                penalty += PoolingModel.CNF_PENALTY * (PoolingModel.CNF_MIN_DISTANCE - distance);
+            }
+            previous = stops[position];
+        }
+        return distance + distanceMatrix.distance(previous, PoolingModel.DEPOT_INDEX) + penalty;
+    }
+
+    private static int positionOf(int[] stops, int before, int stop) {
+        for(int position = before - 1; position >= 0; position--) {
+            if(stops[position] == stop) {
+                return position;
+            }
+        }
+        return -1;
+    }
+}
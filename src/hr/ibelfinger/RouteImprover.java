@@ -0,0 +1,130 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.RoutingModel;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Local search inside single routes, without the solver: relocate (move one stop), or-opt (move two or three
+ * consecutive stops) and 2-opt (reverse a part of the route) until no move makes the route cheaper.
+ * Every accepted route passes RouteConstraints, so it is still a valid route of the PoolingModel.
+ * <p>
+ * Routes have at most a handful of stops, so a route is improved in microseconds and routes run in parallel.
+ * Routes only get shorter, so the global span cost of the model can't grow either.
+ */
+public class RouteImprover {
+    private static final int MAX_SEGMENT_LENGTH = 3;
+
+    private final RouteConstraints constraints;
+
+    private RouteImprover(RouteConstraints constraints) {
+        this.constraints = constraints;
+    }
+
+    /**
+     * Improved copies of the routes, routes are location indices without depot.
+     */
+    public static int[][] improve(LocationStore locations, DistanceMatrix distanceMatrix, int[][] routes) {
+        return improve(locations, distanceMatrix, routes, ForkJoinPool.commonPool());
+    }
+
+    public static int[][] improve(LocationStore locations, DistanceMatrix distanceMatrix, int[][] routes,
+                                  ForkJoinPool pool) {
+        final RouteImprover improver = new RouteImprover(RouteConstraints.of(locations, distanceMatrix));
+        final int[][] improved = new int[routes.length][];
+        pool.submit(() -> IntStream.range(0, routes.length).parallel()
+                .forEach(vehicle -> improved[vehicle] = improver.improve(routes[vehicle]))).join();
+        return improved;
+    }
+
+    /**
+     * Improves the routes of a solved model and reads them back into an assignment of the same model.
+     * Returns the solution itself if no route got better, or a copy of it if the model doesn't take the routes.
+     */
+    public static Assignment improve(PoolingModel poolingModel, Assignment solution) {
+        final int[][] routes = poolingModel.routes(solution);
+        final int[][] improved = improve(poolingModel.getLocations(), poolingModel.getDistanceMatrix(), routes);
+        boolean changed = false;
+        for(int vehicle = 0; vehicle < routes.length && !changed; vehicle++) {
+            changed = !Arrays.equals(routes[vehicle], improved[vehicle]);
+        }
+        if(!changed) {
+            return solution;
+        }
+        final RoutingModel model = poolingModel.getModel();
+        // reading the routes overwrites the assignment the solve returned, so the solution is copied first
+        final Assignment solutionCopy = model.solver().makeAssignment(solution);
+        final Assignment improvedSolution = model.ReadAssignmentFromRoutes(improved, true);
+        return improvedSolution != null ? improvedSolution : solutionCopy;
+    }
+
+    private int[] improve(int[] route) {
+        final int length = route.length;
+        int[] best = route.clone();
+        if(length < 2 || !constraints.isFeasible(best, length)) {
+            return best;
+        }
+        long bestCost = constraints.cost(best, length);
+        int[] candidate = new int[length];
+        boolean improved = true;
+        while(improved) {
+            improved = false;
+            // relocate and or-opt: the segment of stops [from, from + segment) goes before stop "to"
+            for(int segment = 1; segment <= MAX_SEGMENT_LENGTH && !improved; segment++) {
+                for(int from = 0; from + segment <= length && !improved; from++) {
+                    for(int to = 0; to <= length && !improved; to++) {
+                        if(to >= from && to <= from + segment) {
+                            continue;
+                        }
+                        moveSegment(best, length, from, segment, to, candidate);
+                        final long cost = constraints.cost(candidate, length);
+                        if(cost < bestCost && constraints.isFeasible(candidate, length)) {
+                            final int[] previous = best;
+                            best = candidate;
+                            candidate = previous;
+                            bestCost = cost;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            // 2-opt: stops [from, to] in reverse order
+            for(int from = 0; from < length - 1 && !improved; from++) {
+                for(int to = from + 1; to < length && !improved; to++) {
+                    System.arraycopy(best, 0, candidate, 0, length);
+                    for(int i = from, j = to; i < j; i++, j--) {
+                        final int stop = candidate[i];
+                        candidate[i] = candidate[j];
+                        candidate[j] = stop;
+                    }
+                    final long cost = constraints.cost(candidate, length);
+                    if(cost < bestCost && constraints.isFeasible(candidate, length)) {
+                        final int[] previous = best;
+                        best = candidate;
+                        candidate = previous;
+                        bestCost = cost;
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static void moveSegment(int[] route, int length, int from, int segment, int to, int[] result) {
+        int position = 0;
+        for(int i = 0; i <= length; i++) {
+            if(i == to) {
+                System.arraycopy(route, from, result, position, segment);
+                position += segment;
+            }
+            if(i < length && (i < from || i >= from + segment)) {
+                result[position++] = route[i];
+            }
+        }
+    }
+}
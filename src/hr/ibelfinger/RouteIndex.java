@@ -0,0 +1,155 @@
+package hr.ibelfinger;
+
+import hr.ibelfinger.spatial.GridIndex;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Spatial index over the stops of active routes, so a new pickup can be matched with the vehicles passing
+ * near it without walking every route. Built from a RouteTable (or plain routes) and kept current with
+ * updateRoute, which only touches the stops of the changed route.
+ * <p>
+ * Distances are in the units of LocationUtils. Not thread safe.
+ */
+public class RouteIndex {
+    private static final int NO_VEHICLE = -1;
+
+    private final LocationStore locations;
+    private final GridIndex stops;
+    private int[][] routes;
+    private int[] vehicleOfNodes;
+
+    public RouteIndex(LocationStore locations, int numberOfVehicles) {
+        this.locations = locations;
+        this.stops = areaOf(locations);
+        this.routes = new int[numberOfVehicles][];
+        Arrays.fill(routes, new int[0]);
+        this.vehicleOfNodes = new int[locations.size()];
+        Arrays.fill(vehicleOfNodes, NO_VEHICLE);
+    }
+
+    public static RouteIndex of(RouteTable routeTable, LocationStore locations) {
+        final RouteIndex index = new RouteIndex(locations, routeTable.getNumberOfVehicles());
+        for(int vehicle = 0; vehicle < routeTable.getNumberOfVehicles(); vehicle++) {
+            final int[] route = new int[routeTable.routeLength(vehicle)];
+            for(int i = 0; i < route.length; i++) {
+                route[i] = routeTable.node(routeTable.routeStart(vehicle) + i);
+            }
+            index.updateRoute(vehicle, route);
+        }
+        return index;
+    }
+
+    public static RouteIndex of(int[][] routes, LocationStore locations) {
+        final RouteIndex index = new RouteIndex(locations, routes.length);
+        for(int vehicle = 0; vehicle < routes.length; vehicle++) {
+            index.updateRoute(vehicle, routes[vehicle]);
+        }
+        return index;
+    }
+
+    // grid covers the locations known so far, later ones outside of it still work through the border cells
+    private static GridIndex areaOf(LocationStore locations) {
+        double minLatitude = Double.POSITIVE_INFINITY, minLongitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) != Location.LocationType.DEPOT) {
+                minLatitude = Math.min(minLatitude, locations.getLatitude(i));
+                minLongitude = Math.min(minLongitude, locations.getLongitude(i));
+                maxLatitude = Math.max(maxLatitude, locations.getLatitude(i));
+                maxLongitude = Math.max(maxLongitude, locations.getLongitude(i));
+            }
+        }
+        if(minLatitude > maxLatitude) {
+            minLatitude = minLongitude = maxLatitude = maxLongitude = 0;
+        }
+        return new GridIndex(minLatitude, minLongitude, maxLatitude, maxLongitude,
+                GridIndex.cellSizeFor(maxLatitude - minLatitude, maxLongitude - minLongitude, locations.size()));
+    }
+
+    /**
+     * Replaces the stops of the vehicle, depot nodes are skipped. Vehicles beyond the current count are added.
+     */
+    public void updateRoute(int vehicle, int[] route) {
+        if(vehicle >= routes.length) {
+            final int oldLength = routes.length;
+            routes = Arrays.copyOf(routes, vehicle + 1);
+            Arrays.fill(routes, oldLength, routes.length, new int[0]);
+        }
+        if(Arrays.equals(routes[vehicle], route)) {
+            return;
+        }
+        for(int node : routes[vehicle]) {
+            // the node may already be indexed under the vehicle it moved to
+            if(vehicleOfNodes[node] == vehicle) {
+                vehicleOfNodes[node] = NO_VEHICLE;
+                stops.remove(node);
+            }
+        }
+        if(locations.size() > vehicleOfNodes.length) {
+            final int oldLength = vehicleOfNodes.length;
+            vehicleOfNodes = Arrays.copyOf(vehicleOfNodes, Math.max(locations.size(), oldLength * 2));
+            Arrays.fill(vehicleOfNodes, oldLength, vehicleOfNodes.length, NO_VEHICLE);
+        }
+        for(int node : route) {
+            if(locations.getLocationType(node) != Location.LocationType.DEPOT) {
+                vehicleOfNodes[node] = vehicle;
+                stops.insert(node, locations.getLatitude(node), locations.getLongitude(node));
+            }
+        }
+        routes[vehicle] = route.clone();
+    }
+
+    public void removeRoute(int vehicle) {
+        updateRoute(vehicle, new int[0]);
+    }
+
+    public int getNumberOfVehicles() {
+        return routes.length;
+    }
+
+    /**
+     * Vehicle the location is routed on, -1 if it isn't on any route.
+     */
+    public int vehicleOf(int node) {
+        return node < vehicleOfNodes.length ? vehicleOfNodes[node] : NO_VEHICLE;
+    }
+
+    /**
+     * Writes up to maxVehicles distinct vehicles into result, ordered by how close their nearest stop is,
+     * and returns how many were written.
+     */
+    public int nearestVehicles(double latitude, double longitude, int maxVehicles, int[] result) {
+        int k = Math.max(1, maxVehicles) * 2;
+        int[] nearestStops = new int[k];
+        while(true) {
+            final int count = stops.nearest(latitude, longitude, k, -1, nearestStops);
+            final BitSet seen = new BitSet(routes.length);
+            int found = 0;
+            for(int i = 0; i < count && found < maxVehicles; i++) {
+                final int vehicle = vehicleOfNodes[nearestStops[i]];
+                if(!seen.get(vehicle)) {
+                    seen.set(vehicle);
+                    result[found++] = vehicle;
+                }
+            }
+            // a vehicle has several stops, look further until there are enough distinct ones or no more stops
+            if(found == maxVehicles || count < k) {
+                return found;
+            }
+            k *= 2;
+            nearestStops = new int[k];
+        }
+    }
+
+    /**
+     * Distinct vehicles with a stop within the distance, in ascending order.
+     */
+    public int[] vehiclesWithin(double latitude, double longitude, long distance) {
+        final BitSet vehicles = new BitSet(routes.length);
+        stops.forEachWithin(latitude, longitude, distance / LocationUtils.DISTANCE_PER_DEGREE,
+                node -> vehicles.set(vehicleOfNodes[node]));
+        return vehicles.stream().toArray();
+    }
+}
@@ -0,0 +1,102 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.RoutingModel;
+
+/**
+ * Routes of an assignment in flat primitive arrays, filled in one pass over the assignment.
+ * Stops of vehicle v are at positions routeStart[v] until routeStart[v + 1], depot is not included.
+ * For every stop there is its location index, the capacity cumul after the stop and the route distance
+ * driven before reaching it.
+ */
+public class RouteTable {
+    private final int numberOfVehicles;
+    private final int[] routeStart;
+    private final int[] nodes;
+    private final long[] loads;
+    private final long[] distances;
+    private final long[] routeDistances;
+
+    private RouteTable(int numberOfVehicles, int maxStops) {
+        this.numberOfVehicles = numberOfVehicles;
+        this.routeStart = new int[numberOfVehicles + 1];
+        this.nodes = new int[maxStops];
+        this.loads = new long[maxStops];
+        this.distances = new long[maxStops];
+        this.routeDistances = new long[numberOfVehicles];
+    }
+
+    public static RouteTable extract(int numberOfVehicles, RoutingModel routing, Assignment assignment, LocationStore locations) {
+        final RouteTable table = new RouteTable(numberOfVehicles, locations.size());
+        int stop = 0;
+        for(int vehicle = 0; vehicle < numberOfVehicles; vehicle++) {
+            table.routeStart[vehicle] = stop;
+            long index = routing.start(vehicle);
+            long routeDistance = 0;
+            while(!routing.isEnd(index)) {
+                final int node = routing.indexToNode(index);
+                final long nextIndex = assignment.value(routing.nextVar(index));
+                final long distanceBefore = routeDistance;
+                routeDistance += routing.getArcCostForVehicle(node, routing.indexToNode(nextIndex), vehicle);
+
+                if(locations.getLocationType(node) != Location.LocationType.DEPOT) {
+                    table.nodes[stop] = node;
+                    table.loads[stop] = assignment.value(routing.cumulVar(nextIndex, "capacity"));
+                    table.distances[stop] = distanceBefore;
+                    stop++;
+                }
+                index = nextIndex;
+            }
+            table.routeDistances[vehicle] = routeDistance;
+        }
+        table.routeStart[numberOfVehicles] = stop;
+        return table;
+    }
+
+    /**
+     * Copy of the table with every node replaced by nodeMap[node], e.g. to go back from a LocationOrder.
+     */
+    public RouteTable mapNodes(int[] nodeMap) {
+        final RouteTable table = new RouteTable(numberOfVehicles, nodes.length);
+        System.arraycopy(routeStart, 0, table.routeStart, 0, routeStart.length);
+        System.arraycopy(loads, 0, table.loads, 0, loads.length);
+        System.arraycopy(distances, 0, table.distances, 0, distances.length);
+        System.arraycopy(routeDistances, 0, table.routeDistances, 0, routeDistances.length);
+        for(int stop = 0; stop < routeStart[numberOfVehicles]; stop++) {
+            table.nodes[stop] = nodeMap[nodes[stop]];
+        }
+        return table;
+    }
+
+    public int getNumberOfVehicles() {
+        return numberOfVehicles;
+    }
+
+    public int routeStart(int vehicle) {
+        return routeStart[vehicle];
+    }
+
+    public int routeEnd(int vehicle) {
+        return routeStart[vehicle + 1];
+    }
+
+    public int routeLength(int vehicle) {
+        return routeStart[vehicle + 1] - routeStart[vehicle];
+    }
+
+    public int node(int stop) {
+        return nodes[stop];
+    }
+
+    public long load(int stop) {
+        return loads[stop];
+    }
+
+    public long distance(int stop) {
+        return distances[stop];
+    }
+
+    public long routeDistance(int vehicle) {
+        return routeDistances[vehicle];
+    }
+}
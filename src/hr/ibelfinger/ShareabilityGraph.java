@@ -0,0 +1,180 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.RoutingModel;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Which pairs of bookings can ride in the same car at the same time. Two bookings are shareable when some
+ * interleaving of their pickups and dropoffs keeps both within the detour rule, within CAPACITY and keeps
+ * the later pickup within MAX_PICKUP_DISTANCE.
+ * <p>
+ * Extra stops between them only make the trips longer, so a pair that isn't shareable on its own can't
+ * overlap in any route. One of them has to be dropped off before the other is picked up. That forbids every
+ * direct arc between their stops except dropoff of one to pickup of the other, and those arcs are removed
+ * before solving.
+ */
+public class ShareabilityGraph implements ArcPruning {
+    // interleavings of bookings a and b, 0 = pickup a, 1 = pickup b, 2 = dropoff a, 3 = dropoff b
+    private static final int[][] INTERLEAVINGS = {
+            {0, 1, 2, 3},
+            {0, 1, 3, 2},
+            {1, 0, 2, 3},
+            {1, 0, 3, 2}
+    };
+
+    private final int[] pickups;
+    private final int[] dropoffs;
+    private final BitSet[] shareable;
+
+    private ShareabilityGraph(int[] pickups, int[] dropoffs, BitSet[] shareable) {
+        this.pickups = pickups;
+        this.dropoffs = dropoffs;
+        this.shareable = shareable;
+    }
+
+    public static ShareabilityGraph compute(LocationStore locations, DistanceMatrix distanceMatrix) {
+        return compute(locations, distanceMatrix, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Every booking's row is computed as its own task on the pool, so rows are written without locking.
+     */
+    public static ShareabilityGraph compute(LocationStore locations, DistanceMatrix distanceMatrix, ForkJoinPool pool) {
+        final BookingIndex bookingIndex = BookingIndex.of(locations);
+        int bookings = 0;
+        final int[] pickups = new int[locations.size()];
+        final int[] dropoffs = new int[locations.size()];
+        for(int i = 0; i < locations.size(); i++) {
+            if(locations.getLocationType(i) == Location.LocationType.PICKUP) {
+                final int dropoff = bookingIndex.indexOf(locations.getBookingId(i), Location.LocationType.DROPOFF);
+                if(dropoff == BookingIndex.NOT_FOUND) {
+                    throw new RuntimeException("Booking " + locations.getBookingId(i) + " has pickup but no dropoff");
+                }
+                pickups[bookings] = i;
+                dropoffs[bookings] = dropoff;
+                bookings++;
+            }
+        }
+        final int numberOfBookings = bookings;
+        final int[] bookingPickups = Arrays.copyOf(pickups, numberOfBookings);
+        final int[] bookingDropoffs = Arrays.copyOf(dropoffs, numberOfBookings);
+
+        final long[] maxBookingDistances = new long[numberOfBookings];
+        for(int booking = 0; booking < numberOfBookings; booking++) {
+            maxBookingDistances[booking] = PoolingModel.maxBookingDistance(
+                    distanceMatrix.distance(bookingPickups[booking], bookingDropoffs[booking]));
+        }
+        // distances are truncated per arc, so a detour through extra stops can come out a unit per stop shorter
+        final int bookingsPerVehicle = PoolingModel.CAPACITY / Location.LocationType.PICKUP.capacityModifier();
+        final long roundingSlack = 2L * Math.max(0, bookingsPerVehicle - 2);
+
+        final BitSet[] shareable = new BitSet[numberOfBookings];
+        pool.submit(() -> IntStream.range(0, numberOfBookings).parallel().forEach(a -> {
+            final BitSet row = new BitSet(numberOfBookings);
+            final int[] stops = new int[4];
+            for(int b = 0; b < numberOfBookings; b++) {
+                if(a == b) {
+                    continue;
+                }
+                stops[0] = bookingPickups[a];
+                stops[1] = bookingPickups[b];
+                stops[2] = bookingDropoffs[a];
+                stops[3] = bookingDropoffs[b];
+                if(isShareable(distanceMatrix, stops, maxBookingDistances[a] + roundingSlack,
+                        maxBookingDistances[b] + roundingSlack, roundingSlack)) {
+                    row.set(b);
+                }
+            }
+            shareable[a] = row;
+        })).join();
+
+        return new ShareabilityGraph(bookingPickups, bookingDropoffs, shareable);
+    }
+
+    private static boolean isShareable(DistanceMatrix distanceMatrix, int[] stops,
+                                       long maxDistanceA, long maxDistanceB, long roundingSlack) {
+        if(2 * Location.LocationType.PICKUP.capacityModifier() > PoolingModel.CAPACITY) {
+            return false;
+        }
+        for(int[] interleaving : INTERLEAVINGS) {
+            // cumulative distance at each of the four stops, route starts at the first one
+            long distance = 0;
+            long pickupA = 0, pickupB = 0, dropoffA = 0, dropoffB = 0;
+            for(int position = 0; position < 4; position++) {
+                if(position > 0) {
+                    distance += distanceMatrix.distance(stops[interleaving[position - 1]], stops[interleaving[position]]);
+                }
+                switch (interleaving[position]) {
+                    case 0: pickupA = distance; break;
+                    case 1: pickupB = distance; break;
+                    case 2: dropoffA = distance; break;
+                    default: dropoffB = distance; break;
+                }
+            }
+            if(dropoffA - pickupA <= maxDistanceA
+                    && dropoffB - pickupB <= maxDistanceB
+                    && Math.max(pickupA, pickupB) <= PoolingModel.MAX_PICKUP_DISTANCE + roundingSlack) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getNumberOfBookings() {
+        return pickups.length;
+    }
+
+    /**
+     * Bookings are numbered in order of their pickups in the location list.
+     */
+    public boolean isShareable(int bookingA, int bookingB) {
+        return shareable[bookingA].get(bookingB);
+    }
+
+    public int countShareablePairs() {
+        int pairs = 0;
+        for(BitSet row : shareable) {
+            pairs += row.cardinality();
+        }
+        return pairs / 2;
+    }
+
+    /**
+     * For bookings a and b that aren't shareable removes pickup a -> pickup b, pickup a -> dropoff b and
+     * dropoff a -> dropoff b (the reverse arcs are removed from b's side). One removeValues call per node.
+     */
+    @Override
+    public void apply(RoutingModel model, LocationStore locations) {
+        final int numberOfBookings = pickups.length;
+        final long[] pickupIndices = new long[numberOfBookings];
+        final long[] dropoffIndices = new long[numberOfBookings];
+        for(int booking = 0; booking < numberOfBookings; booking++) {
+            pickupIndices[booking] = model.nodeToIndex(pickups[booking]);
+            dropoffIndices[booking] = model.nodeToIndex(dropoffs[booking]);
+        }
+
+        final long[] fromPickup = new long[numberOfBookings * 2];
+        final long[] fromDropoff = new long[numberOfBookings];
+        for(int a = 0; a < numberOfBookings; a++) {
+            int pickupRemovals = 0;
+            int dropoffRemovals = 0;
+            for(int b = 0; b < numberOfBookings; b++) {
+                if(a == b || shareable[a].get(b)) {
+                    continue;
+                }
+                fromPickup[pickupRemovals++] = pickupIndices[b];
+                fromPickup[pickupRemovals++] = dropoffIndices[b];
+                fromDropoff[dropoffRemovals++] = dropoffIndices[b];
+            }
+            if(pickupRemovals > 0) {
+                model.nextVar(pickupIndices[a]).removeValues(Arrays.copyOf(fromPickup, pickupRemovals));
+                model.nextVar(dropoffIndices[a]).removeValues(Arrays.copyOf(fromDropoff, dropoffRemovals));
+            }
+        }
+    }
+}
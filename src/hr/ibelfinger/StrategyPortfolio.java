@@ -0,0 +1,151 @@
+package hr.ibelfinger;
+
+import com.google.ortools.constraintsolver.Assignment;
+import com.google.ortools.constraintsolver.FirstSolutionStrategy;
+import com.google.ortools.constraintsolver.RoutingModel;
+import com.google.ortools.constraintsolver.RoutingSearchParameters;
+import com.google.ortools.constraintsolver.VoidToBoolean;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Races several first solution strategies against each other. Every strategy gets its own RoutingModel
+ * (models aren't thread safe) and all of them share one wall clock budget. Searches still running when
+ * the budget is spent are cancelled and the cheapest assignment wins.
+ */
+public class StrategyPortfolio {
+
+    public static class Result {
+        private final PoolingModel model;
+        private final Assignment solution;
+        private final FirstSolutionStrategy.Value strategy;
+
+        Result(PoolingModel model, Assignment solution, FirstSolutionStrategy.Value strategy) {
+            this.model = model;
+            this.solution = solution;
+            this.strategy = strategy;
+        }
+
+        public PoolingModel getModel() {
+            return model;
+        }
+
+        public Assignment getSolution() {
+            return solution;
+        }
+
+        public FirstSolutionStrategy.Value getStrategy() {
+            return strategy;
+        }
+    }
+
+    /**
+     * Races with the estimated fleet, growing it like FleetSizeEstimator.solve and racing again with a fresh budget
+     * while no strategy finds a solution. Returns null only if even one vehicle per booking gave nothing.
+     */
+    public static Result solve(LocationStore locations, DistanceMatrix distanceMatrix,
+                               List<FirstSolutionStrategy.Value> strategies, long timeBudgetMillis,
+                               ArcPruning... arcPrunings) {
+        final int maxVehicles = FleetSizeEstimator.maxVehicles(locations);
+        int numberOfVehicles = Math.min(maxVehicles, FleetSizeEstimator.estimate(locations, distanceMatrix));
+        while(true) {
+            final Result result = solve(locations, distanceMatrix, numberOfVehicles, strategies, timeBudgetMillis,
+                    arcPrunings);
+            if(result != null || numberOfVehicles >= maxVehicles) {
+                return result;
+            }
+            numberOfVehicles = FleetSizeEstimator.grow(numberOfVehicles, maxVehicles);
+        }
+    }
+
+    /**
+     * Returns the best result of all strategies or null if none of them found a solution within the budget.
+     */
+    public static Result solve(LocationStore locations, DistanceMatrix distanceMatrix, int numberOfVehicles,
+                               List<FirstSolutionStrategy.Value> strategies, long timeBudgetMillis,
+                               ArcPruning... arcPrunings) {
+        final long deadlineMillis = System.currentTimeMillis() + timeBudgetMillis;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(strategies.size(), Runtime.getRuntime().availableProcessors())));
+
+        try {
+            final List<Future<Result>> futures = new ArrayList<>();
+            for(FirstSolutionStrategy.Value strategy : strategies) {
+                futures.add(executor.submit(() ->
+                        solveWithStrategy(locations, distanceMatrix, numberOfVehicles, strategy, deadlineMillis, cancelled,
+                                arcPrunings)));
+            }
+
+            Result best = null;
+            for(Future<Result> future : futures) {
+                final Result result = await(future, deadlineMillis, cancelled);
+                if(result != null && (best == null
+                        || result.getSolution().objectiveValue() < best.getSolution().objectiveValue())) {
+                    best = result;
+                }
+            }
+            return best;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Result await(Future<Result> future, long deadlineMillis, AtomicBoolean cancelled) {
+        try {
+            try {
+                return future.get(Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // budget is spent, the custom search limit stops the search at its next check
+                cancelled.set(true);
+                return future.get();
+            }
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Result solveWithStrategy(LocationStore locations, DistanceMatrix distanceMatrix, int numberOfVehicles,
+                                            FirstSolutionStrategy.Value strategy, long deadlineMillis, AtomicBoolean cancelled,
+                                            ArcPruning[] arcPrunings) {
+        final PoolingModel poolingModel = PoolingModel.build(locations, distanceMatrix, numberOfVehicles, arcPrunings);
+        final RoutingModel model = poolingModel.getModel();
+
+        final VoidToBoolean cancelCheck = new VoidToBoolean() {
+            @Override
+            public boolean run() {
+                return cancelled.get() || System.currentTimeMillis() >= deadlineMillis;
+            }
+        };
+        model.addSearchMonitor(model.solver().makeCustomLimit(cancelCheck));
+
+        final long remainingMillis = deadlineMillis - System.currentTimeMillis();
+        if(remainingMillis <= 0) {
+            return null;
+        }
+        RoutingSearchParameters search_parameters =
+                RoutingSearchParameters.newBuilder()
+                        .mergeFrom(RoutingModel.defaultSearchParameters())
+                        .setFirstSolutionStrategy(strategy)
+                        .setTimeLimitMs(remainingMillis)
+                        .build();
+
+        final Assignment solution = poolingModel.solve(search_parameters);
+        Reference.reachabilityFence(cancelCheck);
+        return solution == null ? null : new Result(poolingModel, solution, strategy);
+    }
+}
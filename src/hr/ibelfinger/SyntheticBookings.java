@@ -0,0 +1,127 @@
+package hr.ibelfinger;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Seeded generator of bookings in the same area as LocationConfig, for scaling and soak runs.
+ * <p>
+ * Every booking draws from its own random seeded with (seed, bookingId), so booking N is the same no matter
+ * how many bookings are generated or in which order, and nothing has to be kept in memory to stream them.
+ * Pickups and dropoffs cluster around hotspots, the rest is spread uniformly over the bounding box.
+ */
+public class SyntheticBookings {
+    private static final double MIN_LATITUDE = 25.03;
+    private static final double MAX_LATITUDE = 25.27;
+    private static final double MIN_LONGITUDE = 55.11;
+    private static final double MAX_LONGITUDE = 55.43;
+
+    // latitude, longitude, weight
+    private static final double[][] HOTSPOTS = {
+            {25.0780, 55.1410, 5}, // Marina, JBR
+            {25.0700, 55.1440, 3}, // JLT
+            {25.1970, 55.2740, 5}, // Downtown
+            {25.2100, 55.2720, 2}, // DIFC
+            {25.2580, 55.3050, 3}, // Deira
+            {25.2500, 55.3600, 3}, // Airport
+            {25.1100, 55.2000, 2}, // Al Barsha
+            {25.1200, 55.3800, 1}, // Silicon Oasis
+            {25.2200, 55.4200, 1}  // Al Qusais
+    };
+    private static final double HOTSPOT_SPREAD = 0.012;
+    private static final double UNIFORM_SHARE = 0.2;
+
+    private final long seed;
+    private final double cnfRatio;
+    private final double hotspotWeightSum;
+
+    public SyntheticBookings(long seed, double cnfRatio) {
+        if(cnfRatio < 0 || cnfRatio > 1) {
+            throw new IllegalArgumentException("CNF ratio has to be between 0 and 1, got " + cnfRatio);
+        }
+        this.seed = seed;
+        this.cnfRatio = cnfRatio;
+        double weightSum = 0;
+        for(double[] hotspot : HOTSPOTS) {
+            weightSum += hotspot[2];
+        }
+        this.hotspotWeightSum = weightSum;
+    }
+
+    /**
+     * Depot followed by pickup and dropoff of bookings 1 to numberOfBookings, same layout as LocationConfig.
+     * Locations are created only as the stream is consumed.
+     */
+    public Stream<Location> locations(int numberOfBookings) {
+        return Stream.concat(
+                Stream.of(new Location(0, Location.LocationType.DEPOT, 0, 0)),
+                IntStream.rangeClosed(1, numberOfBookings).boxed().flatMap(this::booking));
+    }
+
+    /**
+     * Same locations as locations(numberOfBookings), written straight into a LocationStore without any Location objects.
+     */
+    public LocationStore store(int numberOfBookings) {
+        final LocationStore store = new LocationStore(numberOfBookings * 2 + 1);
+        store.add(0, Location.LocationType.DEPOT, 0, 0, false);
+        final double[] point = new double[2];
+        for(int bookingId = 1; bookingId <= numberOfBookings; bookingId++) {
+            final SplittableRandom random = randomFor(bookingId);
+            final boolean isCnf = random.nextDouble() < cnfRatio;
+            nextPoint(random, point);
+            store.add(bookingId, Location.LocationType.PICKUP, point[0], point[1], isCnf);
+            nextPoint(random, point);
+            store.add(bookingId, Location.LocationType.DROPOFF, point[0], point[1], false);
+        }
+        return store;
+    }
+
+    /**
+     * Pickup and dropoff of a single booking.
+     */
+    public Stream<Location> booking(int bookingId) {
+        final SplittableRandom random = randomFor(bookingId);
+        final boolean isCnf = random.nextDouble() < cnfRatio;
+        final double[] point = new double[2];
+        nextPoint(random, point);
+        final Location pickup = new Location(bookingId, Location.LocationType.PICKUP, point[0], point[1], isCnf);
+        nextPoint(random, point);
+        final Location dropoff = new Location(bookingId, Location.LocationType.DROPOFF, point[0], point[1]);
+        return Stream.of(pickup, dropoff);
+    }
+
+    private SplittableRandom randomFor(int bookingId) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + bookingId);
+    }
+
+    private void nextPoint(SplittableRandom random, double[] point) {
+        if(random.nextDouble() < UNIFORM_SHARE) {
+            point[0] = random.nextDouble(MIN_LATITUDE, MAX_LATITUDE);
+            point[1] = random.nextDouble(MIN_LONGITUDE, MAX_LONGITUDE);
+            return;
+        }
+        double pick = random.nextDouble() * hotspotWeightSum;
+        double[] hotspot = HOTSPOTS[HOTSPOTS.length - 1];
+        for(double[] candidate : HOTSPOTS) {
+            pick -= candidate[2];
+            if(pick < 0) {
+                hotspot = candidate;
+                break;
+            }
+        }
+        point[0] = clamp(hotspot[0] + gaussian(random) * HOTSPOT_SPREAD, MIN_LATITUDE, MAX_LATITUDE);
+        point[1] = clamp(hotspot[1] + gaussian(random) * HOTSPOT_SPREAD, MIN_LONGITUDE, MAX_LONGITUDE);
+    }
+
+    // Box-Muller, SplittableRandom has no nextGaussian
+    private static double gaussian(SplittableRandom random) {
+        final double u = 1.0 - random.nextDouble();
+        final double v = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
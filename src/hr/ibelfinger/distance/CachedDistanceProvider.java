@@ -0,0 +1,326 @@
+package hr.ibelfinger.distance;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * Puts a bounded in-memory LRU and optionally a DiskDistanceCache in front of an expensive provider.
+ * Lookups go memory, then disk, then the provider, and whatever is found is stored in the faster tiers.
+ * <p>
+ * Coordinates are quantised to KEY_SCALE steps per degree (about a meter), so points closer than that share
+ * their distances. The LRU lives in primitive arrays, an open addressing index over entries linked in recency
+ * order, so a lookup neither allocates nor boxes, and it is split into lock striped segments so parallel matrix
+ * builds don't queue on one lock.
+ * <p>
+ * Rows of providers that compute them in bulk are first filled from the cache. A row missing only a few pairs
+ * gets them one by one, the other rows come from one bulk query of the provider and are stored pair by pair.
+ * Even so a lookup costs more than computing a straight line distance, so only wrap providers like RoadNetwork.
+ */
+public class CachedDistanceProvider implements DistanceProvider {
+    public static final int KEY_SCALE = 100_000;
+    private static final int SEGMENTS = 16;
+    // rows missing more pairs than this are left to the bulk query, a single pair costs a whole point query
+    private static final int MAX_SINGLE_QUERIES_PER_ROW = 32;
+
+    private final DistanceProvider provider;
+    private final DiskDistanceCache diskCache;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachedDistanceProvider(DistanceProvider provider, int maxMemoryEntries) {
+        this(provider, maxMemoryEntries, null);
+    }
+
+    /**
+     * Disk cache can be null for a memory only cache. It has to be opened with KEY_SCALE and the provider's id.
+     */
+    public CachedDistanceProvider(DistanceProvider provider, int maxMemoryEntries, DiskDistanceCache diskCache) {
+        this.provider = provider;
+        this.diskCache = diskCache;
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, (maxMemoryEntries + SEGMENTS - 1) / SEGMENTS));
+        }
+    }
+
+    @Override
+    public long distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        final long fromKey = key(fromLatitude, fromLongitude);
+        final long toKey = key(toLatitude, toLongitude);
+        final int cached = lookup(fromKey, toKey);
+        if(cached != Segment.NOT_FOUND) {
+            return cached;
+        }
+        misses.increment();
+        final int distance = Math.toIntExact(provider.distance(fromLatitude, fromLongitude, toLatitude, toLongitude));
+        store(fromKey, toKey, distance);
+        return distance;
+    }
+
+    @Override
+    public void distanceRows(LocationStore locations, int[] fromIndices, RowConsumer consumer) {
+        if(!provider.computesMatricesInBulk()) {
+            // pair by pair through distance, so through the cache
+            DistanceProvider.super.distanceRows(locations, fromIndices, consumer);
+            return;
+        }
+        final int size = locations.size();
+        final long[] keys = new long[size];
+        final boolean[] depots = new boolean[size];
+        for(int i = 0; i < size; i++) {
+            keys[i] = key(locations.getLatitude(i), locations.getLongitude(i));
+            depots[i] = locations.getLocationType(i) == Location.LocationType.DEPOT;
+        }
+
+        final boolean[] bulkRows = new boolean[fromIndices.length];
+        final ThreadLocal<int[]> rows = ThreadLocal.withInitial(() -> new int[size]);
+        IntStream.range(0, fromIndices.length).parallel().forEach(f -> {
+            final int from = fromIndices[f];
+            final int[] row = rows.get();
+            int missing = 0;
+            for(int to = 0; to < size; to++) {
+                row[to] = depots[from] || depots[to] || to == from ? 0 : lookup(keys[from], keys[to]);
+                if(row[to] == Segment.NOT_FOUND) {
+                    missing++;
+                }
+            }
+            if(missing > MAX_SINGLE_QUERIES_PER_ROW) {
+                bulkRows[f] = true;
+                return;
+            }
+            for(int to = 0; to < size && missing > 0; to++) {
+                if(row[to] == Segment.NOT_FOUND) {
+                    misses.increment();
+                    row[to] = Math.toIntExact(provider.distance(locations.getLatitude(from), locations.getLongitude(from),
+                            locations.getLatitude(to), locations.getLongitude(to)));
+                    store(keys[from], keys[to], row[to]);
+                    missing--;
+                }
+            }
+            consumer.accept(from, row);
+        });
+
+        final int[] bulkFromIndices = IntStream.range(0, fromIndices.length)
+                .filter(f -> bulkRows[f])
+                .map(f -> fromIndices[f])
+                .toArray();
+        if(bulkFromIndices.length == 0) {
+            return;
+        }
+        provider.distanceRows(locations, bulkFromIndices, (from, row) -> {
+            for(int to = 0; to < size; to++) {
+                if(!depots[from] && !depots[to] && to != from) {
+                    misses.increment();
+                    store(keys[from], keys[to], row[to]);
+                }
+            }
+            consumer.accept(from, row);
+        });
+    }
+
+    @Override
+    public boolean computesMatricesInBulk() {
+        return provider.computesMatricesInBulk();
+    }
+
+    /**
+     * Same distances as the provider, up to the key quantisation.
+     */
+    @Override
+    public String id() {
+        return provider.id();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    /**
+     * Pairs that had to be computed, rows computed in bulk count all of their pairs.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public static long key(double latitude, double longitude) {
+        return (long) (int) Math.round(latitude * KEY_SCALE) << 32 | ((int) Math.round(longitude * KEY_SCALE) & 0xFFFFFFFFL);
+    }
+
+    // memory, then disk, NOT_FOUND if neither has the pair
+    private int lookup(long fromKey, long toKey) {
+        final long hash = hash(fromKey, toKey);
+        final Segment segment = segmentOf(hash);
+        final int cached = segment.get(fromKey, toKey, hash);
+        if(cached != Segment.NOT_FOUND) {
+            memoryHits.increment();
+            return cached;
+        }
+        if(diskCache != null) {
+            final int stored = diskCache.get(fromKey, toKey);
+            if(stored != DiskDistanceCache.NOT_FOUND) {
+                diskHits.increment();
+                segment.put(fromKey, toKey, hash, stored);
+                return stored;
+            }
+        }
+        return Segment.NOT_FOUND;
+    }
+
+    private void store(long fromKey, long toKey, int distance) {
+        if(diskCache != null) {
+            diskCache.put(fromKey, toKey, distance);
+        }
+        final long hash = hash(fromKey, toKey);
+        segmentOf(hash).put(fromKey, toKey, hash, distance);
+    }
+
+    private Segment segmentOf(long hash) {
+        return segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+    }
+
+    private static long hash(long fromKey, long toKey) {
+        long hash = fromKey * 0x9E3779B97F4A7C15L + toKey;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ hash >>> 32;
+    }
+
+    /**
+     * LRU of at most capacity pairs. Entries are array positions, linked from the most to the least recently used,
+     * and found through an open addressing index of entry + 1 that is kept free of tombstones by shifting entries
+     * back when one is evicted.
+     */
+    private static final class Segment {
+        static final int NOT_FOUND = -1;
+        private static final int NONE = -1;
+
+        private final int capacity;
+        private final long[] fromKeys;
+        private final long[] toKeys;
+        private final int[] distances;
+        private final int[] newer;
+        private final int[] older;
+        // at most half full, 0 in empty slots
+        private final int[] index;
+        private final int indexMask;
+        private final ReentrantLock lock = new ReentrantLock();
+        private int size;
+        private int newest = NONE;
+        private int oldest = NONE;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.fromKeys = new long[capacity];
+            this.toKeys = new long[capacity];
+            this.distances = new int[capacity];
+            this.newer = new int[capacity];
+            this.older = new int[capacity];
+            this.index = new int[Integer.highestOneBit(capacity) << 2];
+            this.indexMask = index.length - 1;
+        }
+
+        int get(long fromKey, long toKey, long hash) {
+            lock.lock();
+            try {
+                final int slot = find(fromKey, toKey, hash);
+                if(index[slot] == 0) {
+                    return NOT_FOUND;
+                }
+                final int entry = index[slot] - 1;
+                unlink(entry);
+                linkNewest(entry);
+                return distances[entry];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(long fromKey, long toKey, long hash, int distance) {
+            lock.lock();
+            try {
+                int slot = find(fromKey, toKey, hash);
+                final int entry;
+                if(index[slot] != 0) {
+                    entry = index[slot] - 1;
+                    unlink(entry);
+                } else {
+                    if(size < capacity) {
+                        entry = size++;
+                    } else {
+                        entry = oldest;
+                        unlink(entry);
+                        remove(find(fromKeys[entry], toKeys[entry], CachedDistanceProvider.hash(fromKeys[entry], toKeys[entry])));
+                        // the removal may have shifted the free slot of the new pair
+                        slot = find(fromKey, toKey, hash);
+                    }
+                    fromKeys[entry] = fromKey;
+                    toKeys[entry] = toKey;
+                    index[slot] = entry + 1;
+                }
+                distances[entry] = distance;
+                linkNewest(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // slot holding the pair, or the empty slot where it would go
+        private int find(long fromKey, long toKey, long hash) {
+            int slot = (int) hash & indexMask;
+            while(index[slot] != 0) {
+                final int entry = index[slot] - 1;
+                if(fromKeys[entry] == fromKey && toKeys[entry] == toKey) {
+                    return slot;
+                }
+                slot = (slot + 1) & indexMask;
+            }
+            return slot;
+        }
+
+        // entries after the hole move back into it unless that would put them before their home slot
+        private void remove(int hole) {
+            for(int slot = (hole + 1) & indexMask; index[slot] != 0; slot = (slot + 1) & indexMask) {
+                final int entry = index[slot] - 1;
+                final int home = (int) CachedDistanceProvider.hash(fromKeys[entry], toKeys[entry]) & indexMask;
+                if(((slot - home) & indexMask) >= ((slot - hole) & indexMask)) {
+                    index[hole] = index[slot];
+                    hole = slot;
+                }
+            }
+            index[hole] = 0;
+        }
+
+        private void unlink(int entry) {
+            if(newer[entry] != NONE) {
+                older[newer[entry]] = older[entry];
+            } else {
+                newest = older[entry];
+            }
+            if(older[entry] != NONE) {
+                newer[older[entry]] = newer[entry];
+            } else {
+                oldest = newer[entry];
+            }
+        }
+
+        private void linkNewest(int entry) {
+            newer[entry] = NONE;
+            older[entry] = newest;
+            if(newest != NONE) {
+                newer[newest] = entry;
+            } else {
+                oldest = entry;
+            }
+            newest = entry;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package hr.ibelfinger.distance;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent tier of CachedDistanceProvider: an open addressing hash table of (from key, to key) -> distance
+ * living in a memory mapped file, so pairs computed in one run are there for the next one.
+ * <p>
+ * File layout: magic, version, key scale, capacity and entry count as ints, an unused int so the rest is 8 byte
+ * aligned and the fingerprint of the provider id as a long, followed by capacity slots of from key and to key
+ * as longs and distance and state as ints. Capacity is fixed when the file is created, once the table is three
+ * quarters full new pairs are no longer stored.
+ * <p>
+ * A file only serves the provider that filled it, and only one process at a time: the file is locked while open.
+ */
+public class DiskDistanceCache implements Closeable {
+    private static final int MAGIC = 0x44_43_41_43; // "DCAC"
+    private static final int VERSION = 2;
+    private static final int COUNT_OFFSET = 4 * Integer.BYTES;
+    private static final int PROVIDER_OFFSET = 6 * Integer.BYTES;
+    private static final int HEADER_BYTES = PROVIDER_OFFSET + Long.BYTES;
+    private static final int SLOT_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+    private static final int MAX_CAPACITY = 1 << 26; // keeps the file in a single 2GB mapping
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+
+    public static final int NOT_FOUND = -1;
+
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final MappedByteBuffer table;
+    private final int mask;
+    private final int maxEntries;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int entries;
+
+    private DiskDistanceCache(FileChannel channel, FileLock fileLock, MappedByteBuffer table, int capacity, int entries) {
+        this.channel = channel;
+        this.fileLock = fileLock;
+        this.table = table;
+        this.mask = capacity - 1;
+        this.maxEntries = capacity / 4 * 3;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens the cache in the given file or creates an empty one with room for at least the given number of pairs.
+     * The key scale and the provider id have to match the ones the file was created with, and no other process
+     * may have the file open.
+     */
+    public static DiskDistanceCache openOrCreate(Path file, int keyScale, String providerId, int expectedEntries) {
+        final long providerFingerprint = Fingerprint.of(providerId);
+        try {
+            final boolean exists = Files.exists(file);
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                final FileLock fileLock;
+                try {
+                    fileLock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    throw new IllegalStateException(file + " is already open in this process");
+                }
+                if(fileLock == null) {
+                    throw new IllegalStateException(file + " is in use by another process");
+                }
+                final int capacity;
+                final int entries;
+                if(exists) {
+                    final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+                    while(header.hasRemaining()) {
+                        if(channel.read(header, header.position()) < 0) {
+                            break;
+                        }
+                    }
+                    header.flip();
+                    if(header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                        throw new IllegalStateException(file + " is not a distance cache file");
+                    }
+                    if(header.getInt() != keyScale) {
+                        throw new IllegalStateException(file + " was written with a different key scale");
+                    }
+                    capacity = header.getInt();
+                    entries = header.getInt();
+                    header.getInt();
+                    if(header.getLong() != providerFingerprint) {
+                        throw new IllegalStateException(file + " was filled by another distance provider than "
+                                + providerId + ", remove it or use another file");
+                    }
+                    if(channel.size() != HEADER_BYTES + (long) capacity * SLOT_BYTES) {
+                        throw new IllegalStateException(file + " is truncated");
+                    }
+                } else {
+                    capacity = capacityFor(expectedEntries);
+                    entries = 0;
+                }
+
+                final MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_BYTES + (long) capacity * SLOT_BYTES);
+                table.order(ByteOrder.nativeOrder());
+                if(!exists) {
+                    table.putInt(0, MAGIC).putInt(Integer.BYTES, VERSION).putInt(2 * Integer.BYTES, keyScale)
+                            .putInt(3 * Integer.BYTES, capacity).putInt(COUNT_OFFSET, 0)
+                            .putLong(PROVIDER_OFFSET, providerFingerprint);
+                }
+                return new DiskDistanceCache(channel, fileLock, table, capacity, entries);
+            } catch (RuntimeException | IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int capacityFor(int expectedEntries) {
+        final long needed = Math.max(16, (long) expectedEntries * 4 / 3 + 1);
+        if(needed > MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    /**
+     * Stored distance or NOT_FOUND.
+     */
+    public int get(long fromKey, long toKey) {
+        lock.readLock().lock();
+        try {
+            for(int slot = slotOf(fromKey, toKey); ; slot = (slot + 1) & mask) {
+                final int offset = HEADER_BYTES + slot * SLOT_BYTES;
+                if(table.getInt(offset + 2 * Long.BYTES + Integer.BYTES) == EMPTY) {
+                    return NOT_FOUND;
+                }
+                if(table.getLong(offset) == fromKey && table.getLong(offset + Long.BYTES) == toKey) {
+                    return table.getInt(offset + 2 * Long.BYTES);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the distance unless the pair is already there or the table is full.
+     */
+    public void put(long fromKey, long toKey, int distance) {
+        lock.writeLock().lock();
+        try {
+            if(entries >= maxEntries) {
+                return;
+            }
+            for(int slot = slotOf(fromKey, toKey); ; slot = (slot + 1) & mask) {
+                final int offset = HEADER_BYTES + slot * SLOT_BYTES;
+                if(table.getInt(offset + 2 * Long.BYTES + Integer.BYTES) == EMPTY) {
+                    table.putLong(offset, fromKey);
+                    table.putLong(offset + Long.BYTES, toKey);
+                    table.putInt(offset + 2 * Long.BYTES, distance);
+                    table.putInt(offset + 2 * Long.BYTES + Integer.BYTES, USED);
+                    table.putInt(COUNT_OFFSET, ++entries);
+                    return;
+                }
+                if(table.getLong(offset) == fromKey && table.getLong(offset + Long.BYTES) == toKey) {
+                    return;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int slotOf(long fromKey, long toKey) {
+        long hash = fromKey * 0x9E3779B97F4A7C15L + toKey;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+        return (int) hash & mask;
+    }
+
+    /**
+     * Writes everything to disk and releases the file.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            table.force();
+            fileLock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package hr.ibelfinger.distance;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.matrix.ArrayDistanceMatrix;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+import java.util.stream.IntStream;
+
+/**
+ * Source of distances between two coordinates, in the units of LocationUtils.
+ * Implementations have to be thread safe, matrices are built from many threads at once.
+ */
+public interface DistanceProvider {
+
+    long distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude);
+
+    /**
+     * Identifies which distances the provider gives, it is stored with distance files so they are never read
+     * back with another provider. Providers whose distances depend on loaded data include a hash of that data.
+     */
+    default String id() {
+        return getClass().getName();
+    }
+
+    /**
+     * Full matrix for the locations on the heap, filled from distanceRows.
+     */
+    default DistanceMatrix distanceMatrix(LocationStore locations) {
+        return ArrayDistanceMatrix.of(locations, this);
+    }
+
+    /**
+     * Rows of the matrix for the given from indices, handed to the consumer from several threads in any order.
+     * Distance to and from the depot and from a location to itself is 0. By default one distance call per pair,
+     * providers that can compute many pairs at once cheaper than one by one override this and
+     * computesMatricesInBulk.
+     */
+    default void distanceRows(LocationStore locations, int[] fromIndices, RowConsumer consumer) {
+        final int size = locations.size();
+        final ThreadLocal<int[]> rows = ThreadLocal.withInitial(() -> new int[size]);
+        IntStream.of(fromIndices).parallel().forEach(from -> {
+            final int[] row = rows.get();
+            final boolean fromDepot = locations.getLocationType(from) == Location.LocationType.DEPOT;
+            for(int to = 0; to < size; to++) {
+                row[to] = fromDepot || to == from || locations.getLocationType(to) == Location.LocationType.DEPOT
+                        ? 0
+                        : Math.toIntExact(distance(locations.getLatitude(from), locations.getLongitude(from),
+                                locations.getLatitude(to), locations.getLongitude(to)));
+            }
+            consumer.accept(from, row);
+        });
+    }
+
+    /**
+     * Whether distanceRows is cheaper than asking for the pairs one by one, so wrappers should go through it.
+     */
+    default boolean computesMatricesInBulk() {
+        return false;
+    }
+
+    interface RowConsumer {
+        /**
+         * Distances from the location at index from to every location. The row array is reused after the call returns.
+         */
+        void accept(int from, int[] row);
+    }
+}
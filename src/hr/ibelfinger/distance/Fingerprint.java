@@ -0,0 +1,36 @@
+package hr.ibelfinger.distance;
+
+/**
+ * 64 bit FNV-1a, for telling files written from different data apart. Not meant to stand up to anyone
+ * crafting collisions on purpose.
+ */
+public final class Fingerprint {
+    public static final long EMPTY = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fingerprint() {
+    }
+
+    public static long of(String value) {
+        return add(EMPTY, value);
+    }
+
+    public static long add(long hash, long value) {
+        for(int shift = 0; shift < Long.SIZE; shift += Byte.SIZE) {
+            hash ^= (value >>> shift) & 0xff;
+            hash *= PRIME;
+        }
+        return hash;
+    }
+
+    public static long add(long hash, double value) {
+        return add(hash, Double.doubleToLongBits(value));
+    }
+
+    public static long add(long hash, String value) {
+        for(int i = 0; i < value.length(); i++) {
+            hash = add(hash, value.charAt(i));
+        }
+        return hash;
+    }
+}
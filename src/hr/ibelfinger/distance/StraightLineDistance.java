@@ -0,0 +1,15 @@
+package hr.ibelfinger.distance;
+
+import hr.ibelfinger.LocationUtils;
+
+/**
+ * Manhattan distance on degrees, same as LocationUtils.getLocationDistance.
+ */
+public class StraightLineDistance implements DistanceProvider {
+
+    @Override
+    public long distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        return (long) ((Math.abs(fromLatitude - toLatitude) + Math.abs(fromLongitude - toLongitude))
+                * LocationUtils.DISTANCE_PER_DEGREE);
+    }
+}
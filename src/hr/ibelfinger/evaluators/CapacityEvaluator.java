@@ -2,18 +2,23 @@ package hr.ibelfinger.evaluators;
 
 import com.google.ortools.constraintsolver.NodeEvaluator2;
 import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
 
 import java.util.List;
 
 public class CapacityEvaluator extends NodeEvaluator2 {
-    private final List<Location> locations;
+    private final LocationStore locations;
 
     public CapacityEvaluator(List<Location> locations) {
+        this(LocationStore.of(locations));
+    }
+
+    public CapacityEvaluator(LocationStore locations) {
         this.locations = locations;
     }
 
     @Override
     public long run(int fromIndex, int toIndex) {
-        return locations.get(fromIndex).getLocationType().capacityModifier();
+        return locations.getLocationType(fromIndex).capacityModifier();
     }
 }
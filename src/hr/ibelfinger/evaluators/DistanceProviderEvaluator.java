@@ -0,0 +1,28 @@
+package hr.ibelfinger.evaluators;
+
+import com.google.ortools.constraintsolver.NodeEvaluator2;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.distance.DistanceProvider;
+
+/**
+ * Asks the provider for every arc, without a matrix in between. Put a CachedDistanceProvider in front of
+ * expensive providers, the solver evaluates the same arcs many times.
+ */
+public class DistanceProviderEvaluator extends NodeEvaluator2 {
+    private final LocationStore locations;
+    private final DistanceProvider distanceProvider;
+
+    public DistanceProviderEvaluator(LocationStore locations, DistanceProvider distanceProvider) {
+        this.locations = locations;
+        this.distanceProvider = distanceProvider;
+    }
+
+    @Override
+    public long run(int firstIndex, int secondIndex) {
+        if(firstIndex == 0 || secondIndex == 0) {
+            return 0; //distance to and from depot is 0. This imitates that we don't care where car ends up
+        }
+        return distanceProvider.distance(locations.getLatitude(firstIndex), locations.getLongitude(firstIndex),
+                locations.getLatitude(secondIndex), locations.getLongitude(secondIndex));
+    }
+}
@@ -0,0 +1,17 @@
+package hr.ibelfinger.evaluators;
+
+import com.google.ortools.constraintsolver.NodeEvaluator2;
+import hr.ibelfinger.matrix.DistanceMatrix;
+
+public class MatrixEvaluator extends NodeEvaluator2 {
+    private final DistanceMatrix matrix;
+
+    public MatrixEvaluator(DistanceMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    @Override
+    public long run(int firstIndex, int secondIndex) {
+        return matrix.distance(firstIndex, secondIndex);
+    }
+}
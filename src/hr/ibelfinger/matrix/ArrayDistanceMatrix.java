@@ -0,0 +1,62 @@
+package hr.ibelfinger.matrix;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.distance.DistanceProvider;
+import hr.ibelfinger.distance.StraightLineDistance;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+public class ArrayDistanceMatrix implements DistanceMatrix {
+    private final int size;
+    private final int[] distances;
+
+    private ArrayDistanceMatrix(int size, int[] distances) {
+        this.size = size;
+        this.distances = distances;
+    }
+
+    /**
+     * Computes all pairwise distances once, one row per task, into a flat row-major array.
+     * Distance to and from the depot is 0, same as in StraightLineEvaluator.
+     */
+    public static ArrayDistanceMatrix straightLine(List<Location> locations) {
+        return straightLine(LocationStore.of(locations));
+    }
+
+    public static ArrayDistanceMatrix straightLine(LocationStore locations) {
+        return of(locations, new StraightLineDistance());
+    }
+
+    /**
+     * Same as straightLine, with distances from the given provider's rows.
+     */
+    public static ArrayDistanceMatrix of(LocationStore locations, DistanceProvider distanceProvider) {
+        final int size = locations.size();
+        final int[] distances = new int[Math.multiplyExact(size, size)];
+        distanceProvider.distanceRows(locations, IntStream.range(0, size).toArray(),
+                (from, row) -> System.arraycopy(row, 0, distances, from * size, size));
+        return new ArrayDistanceMatrix(size, distances);
+    }
+
+    /**
+     * Wraps distances that are already computed, size * size of them in row-major order.
+     */
+    public static ArrayDistanceMatrix of(int size, int[] distances) {
+        if(distances.length != (long) size * size) {
+            throw new IllegalArgumentException("Expected " + (long) size * size + " distances, got " + distances.length);
+        }
+        return new ArrayDistanceMatrix(size, distances);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long distance(int fromIndex, int toIndex) {
+        return distances[fromIndex * size + toIndex];
+    }
+}
@@ -0,0 +1,8 @@
+package hr.ibelfinger.matrix;
+
+public interface DistanceMatrix {
+
+    int size();
+
+    long distance(int fromIndex, int toIndex);
+}
@@ -0,0 +1,95 @@
+package hr.ibelfinger.matrix;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.distance.DistanceProvider;
+
+import java.util.stream.IntStream;
+
+/**
+ * Matrix of a LocationStore that only grows, like the one of LivePlanner. Rows have spare capacity, so locations
+ * added to the store only cost their own rows and columns instead of a whole new matrix. Distance to and from the
+ * depot and from a location to itself is 0, same as in DistanceProvider.distanceRows.
+ * <p>
+ * Not thread safe, nothing may read the matrix while it grows.
+ */
+public class GrowableDistanceMatrix implements DistanceMatrix {
+    private final LocationStore locations;
+    private final DistanceProvider distanceProvider;
+    private int size;
+    private int capacity;
+    private int[] distances;
+
+    private GrowableDistanceMatrix(LocationStore locations, DistanceProvider distanceProvider) {
+        this.locations = locations;
+        this.distanceProvider = distanceProvider;
+    }
+
+    /**
+     * Starts from the provider's rows of the current locations.
+     */
+    public static GrowableDistanceMatrix of(LocationStore locations, DistanceProvider distanceProvider) {
+        final GrowableDistanceMatrix matrix = new GrowableDistanceMatrix(locations, distanceProvider);
+        final int size = locations.size();
+        matrix.capacity = size;
+        matrix.distances = new int[Math.multiplyExact(size, size)];
+        distanceProvider.distanceRows(locations, IntStream.range(0, size).toArray(),
+                (from, row) -> System.arraycopy(row, 0, matrix.distances, from * size, size));
+        matrix.size = size;
+        return matrix;
+    }
+
+    /**
+     * Computes distances from and to the locations added to the store since the last call,
+     * two rows and columns per booking.
+     */
+    public void grow() {
+        final int oldSize = size;
+        final int newSize = locations.size();
+        if(newSize <= oldSize) {
+            return;
+        }
+        if(newSize > capacity) {
+            resize(Math.max(newSize, capacity * 2));
+        }
+        // every task writes its own row of the new columns, and its new row only if it is an old location
+        IntStream.range(0, newSize).parallel().forEach(i -> {
+            for(int added = oldSize; added < newSize; added++) {
+                distances[i * capacity + added] = compute(i, added);
+                if(i < oldSize) {
+                    distances[added * capacity + i] = compute(added, i);
+                }
+            }
+        });
+        size = newSize;
+    }
+
+    private void resize(int newCapacity) {
+        final int[] resized = new int[Math.multiplyExact(newCapacity, newCapacity)];
+        for(int from = 0; from < size; from++) {
+            System.arraycopy(distances, from * capacity, resized, from * newCapacity, size);
+        }
+        distances = resized;
+        capacity = newCapacity;
+    }
+
+    private int compute(int from, int to) {
+        if(from == to || locations.getLocationType(from) == Location.LocationType.DEPOT
+                || locations.getLocationType(to) == Location.LocationType.DEPOT) {
+            return 0;
+        }
+        return Math.toIntExact(distanceProvider.distance(
+                locations.getLatitude(from), locations.getLongitude(from),
+                locations.getLatitude(to), locations.getLongitude(to)));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long distance(int fromIndex, int toIndex) {
+        return distances[fromIndex * capacity + toIndex];
+    }
+}
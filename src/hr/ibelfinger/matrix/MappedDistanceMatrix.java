@@ -0,0 +1,210 @@
+package hr.ibelfinger.matrix;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.distance.DistanceProvider;
+import hr.ibelfinger.distance.Fingerprint;
+import hr.ibelfinger.distance.StraightLineDistance;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Distance matrix stored in a file and read through read-only memory mappings, so it lives in the
+ * OS page cache instead of the heap and can be shared by every process solving the same city.
+ * <p>
+ * File layout: magic, version and size as ints and the fingerprint as a long, followed by size * size int
+ * distances in row-major order. A single mapping is limited to 2GB, so the rows are split over as many mappings
+ * as needed.
+ * <p>
+ * The fingerprint hashes the provider id and the locations in index order, so a file written for other bookings,
+ * another numbering or another provider is refused instead of silently giving wrong distances.
+ */
+public class MappedDistanceMatrix implements DistanceMatrix {
+    private static final int MAGIC = 0x44_4D_41_54; // "DMAT"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final int size;
+    private final long fingerprint;
+    private final int rowsPerSegment;
+    private final MappedByteBuffer[] segments;
+
+    private MappedDistanceMatrix(int size, long fingerprint, int rowsPerSegment, MappedByteBuffer[] segments) {
+        this.size = size;
+        this.fingerprint = fingerprint;
+        this.rowsPerSegment = rowsPerSegment;
+        this.segments = segments;
+    }
+
+    /**
+     * Opens the matrix stored in the given file, writing it first if the file doesn't exist yet.
+     * Throws IllegalStateException if the file was written for other locations or another provider.
+     */
+    public static MappedDistanceMatrix openOrCreate(Path file, List<Location> locations) {
+        return openOrCreate(file, LocationStore.of(locations));
+    }
+
+    public static MappedDistanceMatrix openOrCreate(Path file, LocationStore locations) {
+        return openOrCreate(file, locations, new StraightLineDistance());
+    }
+
+    public static MappedDistanceMatrix openOrCreate(Path file, LocationStore locations, DistanceProvider distanceProvider) {
+        if(!Files.exists(file)) {
+            write(file, locations, distanceProvider);
+        }
+        final MappedDistanceMatrix matrix = open(file);
+        if(matrix.size() != locations.size()) {
+            throw new IllegalStateException("Matrix in " + file + " has size " + matrix.size()
+                    + " but there are " + locations.size() + " locations");
+        }
+        if(matrix.getFingerprint() != fingerprint(locations, distanceProvider)) {
+            throw new IllegalStateException("Matrix in " + file + " was written for other locations or another "
+                    + "distance provider than " + distanceProvider.id() + ", remove it or use another file");
+        }
+        return matrix;
+    }
+
+    public static MappedDistanceMatrix open(Path file) {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            while(header.hasRemaining()) {
+                if(channel.read(header) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            if(header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalStateException(file + " is not a distance matrix file");
+            }
+            final int size = header.getInt();
+            final long fingerprint = header.getLong();
+            if(channel.size() != HEADER_BYTES + (long) size * size * Integer.BYTES) {
+                throw new IllegalStateException(file + " is truncated");
+            }
+
+            final int rowsPerSegment = rowsPerSegment(size);
+            final int segmentCount = size == 0 ? 0 : (size + rowsPerSegment - 1) / rowsPerSegment;
+            final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+            for(int segment = 0; segment < segmentCount; segment++) {
+                final int firstRow = segment * rowsPerSegment;
+                final int rows = Math.min(rowsPerSegment, size - firstRow);
+                segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + (long) firstRow * size * Integer.BYTES,
+                        (long) rows * size * Integer.BYTES);
+                segments[segment].order(ByteOrder.nativeOrder());
+            }
+            return new MappedDistanceMatrix(size, fingerprint, rowsPerSegment, segments);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void writeStraightLine(Path file, LocationStore locations) {
+        write(file, locations, new StraightLineDistance());
+    }
+
+    /**
+     * Writes distances from the provider's rows for the locations, straight into the mapped file so the matrix is
+     * never on the heap. The file is written through a temporary file of its own that is moved in place at the
+     * end, so other processes never map a half written matrix and processes writing the same file at once don't
+     * write into each other's.
+     */
+    public static void write(Path file, LocationStore locations, DistanceProvider distanceProvider) {
+        final int size = locations.size();
+        final int rowsPerSegment = rowsPerSegment(size);
+        final Path temporaryFile;
+        try {
+            temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            try(FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(size).putLong(fingerprint(locations, distanceProvider)).flip();
+                while(header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                // rows come in any order, so every segment is mapped up front
+                final int segmentCount = size == 0 ? 0 : (size + rowsPerSegment - 1) / rowsPerSegment;
+                final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+                for(int segment = 0; segment < segmentCount; segment++) {
+                    final int firstRow = segment * rowsPerSegment;
+                    segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            HEADER_BYTES + (long) firstRow * size * Integer.BYTES,
+                            (long) Math.min(rowsPerSegment, size - firstRow) * size * Integer.BYTES);
+                    segments[segment].order(ByteOrder.nativeOrder());
+                }
+                distanceProvider.distanceRows(locations, IntStream.range(0, size).toArray(), (from, row) -> {
+                    final MappedByteBuffer segment = segments[from / rowsPerSegment];
+                    final int rowOffset = from % rowsPerSegment * size * Integer.BYTES;
+                    for(int to = 0; to < size; to++) {
+                        segment.putInt(rowOffset + to * Integer.BYTES, row[to]);
+                    }
+                });
+                for(MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException e) {
+                // the matrix itself is in place or the original exception is on its way
+            }
+        }
+    }
+
+    /**
+     * Fingerprint of the provider id and the type and coordinates of every location in index order.
+     */
+    public static long fingerprint(LocationStore locations, DistanceProvider distanceProvider) {
+        long hash = Fingerprint.of(distanceProvider.id());
+        for(int i = 0; i < locations.size(); i++) {
+            hash = Fingerprint.add(hash, locations.getLocationType(i).ordinal());
+            hash = Fingerprint.add(hash, locations.getLatitude(i));
+            hash = Fingerprint.add(hash, locations.getLongitude(i));
+        }
+        return hash;
+    }
+
+    private static int rowsPerSegment(int size) {
+        if(size == 0) {
+            return 1;
+        }
+        return (int) Math.max(1, MAX_SEGMENT_BYTES / ((long) size * Integer.BYTES));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public long distance(int fromIndex, int toIndex) {
+        final MappedByteBuffer segment = segments[fromIndex / rowsPerSegment];
+        final int row = fromIndex % rowsPerSegment;
+        return segment.getInt((row * size + toIndex) * Integer.BYTES);
+    }
+}
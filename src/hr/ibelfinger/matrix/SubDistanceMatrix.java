@@ -0,0 +1,25 @@
+package hr.ibelfinger.matrix;
+
+/**
+ * View of a subset of another matrix, used when a sub-problem is solved on its own.
+ * Nothing is copied, index i of the view is index nodes[i] of the parent.
+ */
+public class SubDistanceMatrix implements DistanceMatrix {
+    private final DistanceMatrix parent;
+    private final int[] nodes;
+
+    public SubDistanceMatrix(DistanceMatrix parent, int[] nodes) {
+        this.parent = parent;
+        this.nodes = nodes;
+    }
+
+    @Override
+    public int size() {
+        return nodes.length;
+    }
+
+    @Override
+    public long distance(int fromIndex, int toIndex) {
+        return parent.distance(nodes[fromIndex], nodes[toIndex]);
+    }
+}
@@ -0,0 +1,32 @@
+package hr.ibelfinger.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic count, cheap to increment from many threads at once.
+ */
+public class Counter implements Metric {
+    private final LongAdder count = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    public void appendPrometheus(StringBuilder output, String name, String help) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(" counter\n");
+        output.append(name).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,116 @@
+package hr.ibelfinger.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative longs in HdrHistogram style buckets: every power of two is split into
+ * SUB_BUCKETS equal parts, so any value is known to within 1 / SUB_BUCKETS of itself whatever its magnitude,
+ * in a fixed array of counters and without locks.
+ * <p>
+ * Prometheus only gets the buckets ending just below powers of two, which are also boundaries of the fine
+ * buckets, with their inclusive upper bound 2^p - 1 as le.
+ */
+public class Histogram implements Metric {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    // exported values are multiplied by this, e.g. nanoseconds to seconds
+    private final double exportScale;
+    private final int minExportedPower;
+    private final int maxExportedPower;
+
+    Histogram(double exportScale, int minExportedPower, int maxExportedPower) {
+        this.exportScale = exportScale;
+        this.minExportedPower = minExportedPower;
+        this.maxExportedPower = maxExportedPower;
+    }
+
+    public void record(long value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given quantile, 0 when nothing was recorded.
+     */
+    public long quantile(double quantile) {
+        final long total = getCount();
+        if(total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for(int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (magnitude - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    @Override
+    public void appendPrometheus(StringBuilder output, String name, String help) {
+        output.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        output.append("# TYPE ").append(name).append(" histogram\n");
+        // counts are read bucket by bucket while others record, so the total is taken from the same reads
+        long cumulative = 0;
+        int bucket = 0;
+        for(int power = minExportedPower; power <= maxExportedPower; power++) {
+            final long bound = (1L << power) - 1;
+            for(; bucket < BUCKETS && upperBoundOf(bucket) <= bound; bucket++) {
+                cumulative += counts.get(bucket);
+            }
+            output.append(name).append("_bucket{le=\"").append(bound * exportScale).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        for(; bucket < BUCKETS; bucket++) {
+            cumulative += counts.get(bucket);
+        }
+        output.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        output.append(name).append("_sum ").append(getSum() * exportScale).append('\n');
+        output.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
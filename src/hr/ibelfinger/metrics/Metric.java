@@ -0,0 +1,6 @@
+package hr.ibelfinger.metrics;
+
+interface Metric {
+
+    void appendPrometheus(StringBuilder output, String name, String help);
+}
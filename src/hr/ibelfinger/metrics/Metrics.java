@@ -0,0 +1,93 @@
+package hr.ibelfinger.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-process registry of named counters, histograms and timers. Metrics are created on first use and live for
+ * the whole process, classes keep them in static fields:
+ * <pre>
+ * private static final Timer SOLVE = Metrics.global().timer("pooling_solve_seconds", "Time spent in the solver");
+ * </pre>
+ * Everything can be written as a Prometheus text file for a node exporter style scraper.
+ */
+public class Metrics {
+    private static final Metrics GLOBAL = new Metrics();
+
+    private final Map<String, Registered> metrics = new ConcurrentSkipListMap<>();
+
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public Counter counter(String name, String help) {
+        return register(name, help, new Counter(), Counter.class);
+    }
+
+    /**
+     * Values are exported as they are recorded, with buckets up to 2^p - 1 for p from 0 to 30.
+     */
+    public Histogram histogram(String name, String help) {
+        return register(name, help, new Histogram(1, 0, 30), Histogram.class);
+    }
+
+    public Timer timer(String name, String help) {
+        return register(name, help, new Timer(), Timer.class);
+    }
+
+    private <T extends Metric> T register(String name, String help, T metric, Class<T> type) {
+        if(!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+            throw new IllegalArgumentException("Invalid metric name " + name);
+        }
+        final Registered registered = metrics.computeIfAbsent(name, key -> new Registered(metric, help));
+        if(registered.metric.getClass() != type) {
+            throw new IllegalArgumentException(name + " is already registered as " + registered.metric.getClass().getSimpleName());
+        }
+        return type.cast(registered.metric);
+    }
+
+    /**
+     * Prometheus text exposition format, metrics sorted by name.
+     */
+    public String toPrometheus() {
+        final StringBuilder output = new StringBuilder();
+        for(Map.Entry<String, Registered> entry : metrics.entrySet()) {
+            entry.getValue().metric.appendPrometheus(output, entry.getKey(), entry.getValue().help);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Writes through a temporary file that replaces the target, so a scraper never reads half a file.
+     */
+    public void writePrometheus(Path file) {
+        try {
+            final Path directory = file.toAbsolutePath().getParent();
+            final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, toPrometheus().getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Registered {
+        final Metric metric;
+        final String help;
+
+        Registered(Metric metric, String help) {
+            this.metric = metric;
+            this.help = help;
+        }
+    }
+}
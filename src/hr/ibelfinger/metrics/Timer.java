@@ -0,0 +1,45 @@
+package hr.ibelfinger.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of durations in nanoseconds, exported in seconds from about a microsecond to about 20 minutes.
+ * <pre>
+ * final long start = timer.start();
+ * ...
+ * timer.stop(start);
+ * </pre>
+ */
+public class Timer extends Histogram {
+    private static final double SECONDS_PER_NANO = 1e-9;
+
+    Timer() {
+        super(SECONDS_PER_NANO, 10, 40);
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since start and returns it in nanoseconds.
+     */
+    public long stop(long start) {
+        final long elapsed = System.nanoTime() - start;
+        record(elapsed);
+        return elapsed;
+    }
+
+    public void time(Runnable runnable) {
+        final long start = start();
+        try {
+            runnable.run();
+        } finally {
+            stop(start);
+        }
+    }
+
+    public double quantileMillis(double quantile) {
+        return quantile(quantile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
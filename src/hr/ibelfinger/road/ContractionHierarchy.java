@@ -0,0 +1,516 @@
+package hr.ibelfinger.road;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy over a RoadGraph. Nodes are contracted one by one, least important first, adding
+ * shortcut arcs wherever a shortest path went through the contracted node. Afterwards every shortest path
+ * goes up in rank and then down again, so queries only search upwards from both ends and touch a few hundred
+ * nodes instead of the whole city.
+ * <p>
+ * Many-to-many tables use buckets: an upward search of the reversed graph from every target leaves its distance
+ * in a bucket on every node it settles, then an upward search from every source scans the buckets of the nodes it
+ * settles. Both phases run one search per task in parallel. Queries are thread safe.
+ */
+public class ContractionHierarchy {
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+    // witness searches give up after this many nodes and add the shortcut, which is never wrong, just bigger;
+    // priorities only estimate the shortcut count, so their searches give up sooner
+    private static final int WITNESS_SETTLED_LIMIT = 100;
+    private static final int PRIORITY_SETTLED_LIMIT = 20;
+
+    public interface RowConsumer {
+        /**
+         * Distances from sources[sourceIndex] to every target, UNREACHABLE where there is no path.
+         * The row array is reused after the call returns.
+         */
+        void accept(int sourceIndex, long[] row);
+    }
+
+    private final int size;
+    // arcs from a node to higher ranked nodes
+    private final int[] upFirstArcs;
+    private final int[] upHeads;
+    private final int[] upLengths;
+    // arcs into a node from higher ranked nodes, stored at the lower node with the tail as head
+    private final int[] downFirstArcs;
+    private final int[] downHeads;
+    private final int[] downLengths;
+    private final ThreadLocal<Search> searches;
+    private final ThreadLocal<Search> reverseSearches;
+
+    private ContractionHierarchy(int size, int[] upFirstArcs, int[] upHeads, int[] upLengths,
+                                 int[] downFirstArcs, int[] downHeads, int[] downLengths) {
+        this.size = size;
+        this.upFirstArcs = upFirstArcs;
+        this.upHeads = upHeads;
+        this.upLengths = upLengths;
+        this.downFirstArcs = downFirstArcs;
+        this.downHeads = downHeads;
+        this.downLengths = downLengths;
+        this.searches = ThreadLocal.withInitial(() -> new Search(size));
+        this.reverseSearches = ThreadLocal.withInitial(() -> new Search(size));
+    }
+
+    public static ContractionHierarchy build(RoadGraph graph) {
+        final int size = graph.size();
+        final Arcs out = new Arcs(size);
+        final Arcs in = new Arcs(size);
+        for(int node = 0; node < size; node++) {
+            for(int arc = graph.firstArc(node); arc < graph.firstArc(node + 1); arc++) {
+                if(graph.head(arc) != node) {
+                    addOrShorten(out, in, node, graph.head(arc), graph.length(arc));
+                }
+            }
+        }
+
+        final Contraction contraction = new Contraction(out, in);
+        final MinHeap queue = new MinHeap(size);
+        for(int node = 0; node < size; node++) {
+            queue.push(contraction.priority(node), node);
+        }
+        final int[] ranks = new int[size];
+        int rank = 0;
+        while(!queue.isEmpty()) {
+            final int node = queue.pop();
+            if(contraction.contracted[node]) {
+                continue;
+            }
+            // priorities go stale as neighbours get contracted, so they are refreshed lazily
+            final long priority = contraction.priority(node);
+            if(!queue.isEmpty() && priority > queue.peekKey()) {
+                queue.push(priority, node);
+                continue;
+            }
+            contraction.contract(node);
+            ranks[node] = rank++;
+        }
+
+        // every arc, original or shortcut, goes either up or down in rank
+        final int[] upCounts = new int[size + 1];
+        final int[] downCounts = new int[size + 1];
+        for(int tail = 0; tail < size; tail++) {
+            for(int i = 0; i < out.counts[tail]; i++) {
+                final int head = out.heads[tail][i];
+                if(ranks[head] > ranks[tail]) {
+                    upCounts[tail + 1]++;
+                } else {
+                    downCounts[head + 1]++;
+                }
+            }
+        }
+        for(int node = 0; node < size; node++) {
+            upCounts[node + 1] += upCounts[node];
+            downCounts[node + 1] += downCounts[node];
+        }
+        final int[] upHeads = new int[upCounts[size]];
+        final int[] upLengths = new int[upCounts[size]];
+        final int[] downHeads = new int[downCounts[size]];
+        final int[] downLengths = new int[downCounts[size]];
+        final int[] upNext = Arrays.copyOf(upCounts, size);
+        final int[] downNext = Arrays.copyOf(downCounts, size);
+        for(int tail = 0; tail < size; tail++) {
+            for(int i = 0; i < out.counts[tail]; i++) {
+                final int head = out.heads[tail][i];
+                if(ranks[head] > ranks[tail]) {
+                    upHeads[upNext[tail]] = head;
+                    upLengths[upNext[tail]++] = out.lengths[tail][i];
+                } else {
+                    downHeads[downNext[head]] = tail;
+                    downLengths[downNext[head]++] = out.lengths[tail][i];
+                }
+            }
+        }
+        return new ContractionHierarchy(size, upCounts, upHeads, upLengths, downCounts, downHeads, downLengths);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Shortest path length between two graph nodes, UNREACHABLE if there is no path.
+     */
+    public long distance(int from, int to) {
+        final Search forward = searches.get();
+        final Search backward = reverseSearches.get();
+        forward.run(from, upFirstArcs, upHeads, upLengths);
+        backward.run(to, downFirstArcs, downHeads, downLengths);
+        long best = UNREACHABLE;
+        for(int i = 0; i < backward.settledCount; i++) {
+            final long forwardDistance = forward.distances[backward.settled[i]];
+            if(forwardDistance != UNREACHABLE) {
+                best = Math.min(best, forwardDistance + backward.settledDistances[i]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Distances between every source and every target node, handed to the consumer one source row at a time
+     * from several threads.
+     */
+    public void manyToMany(int[] sources, int[] targets, RowConsumer consumer) {
+        // upward search spaces of the reversed graph from every target
+        final int[][] spaceNodes = new int[targets.length][];
+        final long[][] spaceDistances = new long[targets.length][];
+        IntStream.range(0, targets.length).parallel().forEach(target -> {
+            final Search search = reverseSearches.get();
+            search.run(targets[target], downFirstArcs, downHeads, downLengths);
+            spaceNodes[target] = Arrays.copyOf(search.settled, search.settledCount);
+            spaceDistances[target] = Arrays.copyOf(search.settledDistances, search.settledCount);
+        });
+
+        final int[] bucketStarts = new int[size + 1];
+        for(int[] nodes : spaceNodes) {
+            for(int node : nodes) {
+                bucketStarts[node + 1]++;
+            }
+        }
+        for(int node = 0; node < size; node++) {
+            bucketStarts[node + 1] += bucketStarts[node];
+        }
+        final int[] bucketTargets = new int[bucketStarts[size]];
+        final long[] bucketDistances = new long[bucketStarts[size]];
+        final int[] bucketNext = Arrays.copyOf(bucketStarts, size);
+        for(int target = 0; target < targets.length; target++) {
+            for(int i = 0; i < spaceNodes[target].length; i++) {
+                final int position = bucketNext[spaceNodes[target][i]]++;
+                bucketTargets[position] = target;
+                bucketDistances[position] = spaceDistances[target][i];
+            }
+        }
+
+        final ThreadLocal<long[]> rows = ThreadLocal.withInitial(() -> new long[targets.length]);
+        IntStream.range(0, sources.length).parallel().forEach(source -> {
+            final long[] row = rows.get();
+            Arrays.fill(row, UNREACHABLE);
+            final Search search = searches.get();
+            search.run(sources[source], upFirstArcs, upHeads, upLengths);
+            for(int i = 0; i < search.settledCount; i++) {
+                final int node = search.settled[i];
+                final long distance = search.settledDistances[i];
+                for(int position = bucketStarts[node]; position < bucketStarts[node + 1]; position++) {
+                    final long total = distance + bucketDistances[position];
+                    if(total < row[bucketTargets[position]]) {
+                        row[bucketTargets[position]] = total;
+                    }
+                }
+            }
+            consumer.accept(source, row);
+        });
+    }
+
+    private static void addOrShorten(Arcs out, Arcs in, int tail, int head, int length) {
+        if(!out.shorten(tail, head, length)) {
+            out.add(tail, head, length);
+            in.add(head, tail, length);
+        } else {
+            in.shorten(head, tail, length);
+        }
+    }
+
+    /**
+     * Growable adjacency lists, arcs are never removed.
+     */
+    private static final class Arcs {
+        final int[][] heads;
+        final int[][] lengths;
+        final int[] counts;
+
+        Arcs(int size) {
+            heads = new int[size][];
+            lengths = new int[size][];
+            counts = new int[size];
+        }
+
+        void add(int node, int head, int length) {
+            if(heads[node] == null) {
+                heads[node] = new int[4];
+                lengths[node] = new int[4];
+            } else if(counts[node] == heads[node].length) {
+                heads[node] = Arrays.copyOf(heads[node], counts[node] * 2);
+                lengths[node] = Arrays.copyOf(lengths[node], counts[node] * 2);
+            }
+            heads[node][counts[node]] = head;
+            lengths[node][counts[node]++] = length;
+        }
+
+        // true if there already is an arc to head, which is then made no longer than length
+        boolean shorten(int node, int head, int length) {
+            for(int i = 0; i < counts[node]; i++) {
+                if(heads[node][i] == head) {
+                    lengths[node][i] = Math.min(lengths[node][i], length);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Contraction {
+        final Arcs out;
+        final Arcs in;
+        final boolean[] contracted;
+        final int[] contractedNeighbours;
+        final int[] levels;
+        final int[] seen;
+        int stamp;
+        final long[] witnessDistances;
+        final int[] touched;
+        final MinHeap heap;
+
+        Contraction(Arcs out, Arcs in) {
+            this.out = out;
+            this.in = in;
+            final int size = out.counts.length;
+            this.contracted = new boolean[size];
+            this.contractedNeighbours = new int[size];
+            this.levels = new int[size];
+            this.seen = new int[size];
+            this.witnessDistances = new long[size];
+            Arrays.fill(witnessDistances, UNREACHABLE);
+            this.touched = new int[size];
+            this.heap = new MinHeap(16);
+        }
+
+        // edge difference plus contracted neighbours and level, which spread contraction evenly over the graph
+        long priority(int node) {
+            int arcs = 0;
+            for(int i = 0; i < in.counts[node]; i++) {
+                arcs += contracted[in.heads[node][i]] ? 0 : 1;
+            }
+            for(int i = 0; i < out.counts[node]; i++) {
+                arcs += contracted[out.heads[node][i]] ? 0 : 1;
+            }
+            return 2L * (shortcuts(node, false) - arcs) + contractedNeighbours[node] + levels[node];
+        }
+
+        void contract(int node) {
+            shortcuts(node, true);
+            contracted[node] = true;
+            for(int neighbour : uncontractedNeighbours(node)) {
+                contractedNeighbours[neighbour]++;
+                levels[neighbour] = Math.max(levels[neighbour], levels[node] + 1);
+            }
+        }
+
+        int[] uncontractedNeighbours(int node) {
+            final int[] neighbours = new int[in.counts[node] + out.counts[node]];
+            int count = 0;
+            stamp++;
+            for(int i = 0; i < in.counts[node]; i++) {
+                count = addNeighbour(in.heads[node][i], neighbours, count);
+            }
+            for(int i = 0; i < out.counts[node]; i++) {
+                count = addNeighbour(out.heads[node][i], neighbours, count);
+            }
+            return Arrays.copyOf(neighbours, count);
+        }
+
+        private int addNeighbour(int neighbour, int[] neighbours, int count) {
+            if(!contracted[neighbour] && seen[neighbour] != stamp) {
+                seen[neighbour] = stamp;
+                neighbours[count++] = neighbour;
+            }
+            return count;
+        }
+
+        // number of shortcuts contracting the node needs, added to the graph when add is set
+        int shortcuts(int node, boolean add) {
+            int shortcuts = 0;
+            for(int i = 0; i < in.counts[node]; i++) {
+                final int tail = in.heads[node][i];
+                if(contracted[tail]) {
+                    continue;
+                }
+                final int inLength = in.lengths[node][i];
+                long maxLength = -1;
+                for(int j = 0; j < out.counts[node]; j++) {
+                    if(!contracted[out.heads[node][j]] && out.heads[node][j] != tail) {
+                        maxLength = Math.max(maxLength, (long) inLength + out.lengths[node][j]);
+                    }
+                }
+                if(maxLength < 0) {
+                    continue;
+                }
+
+                final int touchedCount = witnessSearch(tail, node, maxLength,
+                        add ? WITNESS_SETTLED_LIMIT : PRIORITY_SETTLED_LIMIT);
+                for(int j = 0; j < out.counts[node]; j++) {
+                    final int head = out.heads[node][j];
+                    if(contracted[head] || head == tail) {
+                        continue;
+                    }
+                    final long viaNode = (long) inLength + out.lengths[node][j];
+                    if(witnessDistances[head] > viaNode) {
+                        shortcuts++;
+                        if(add) {
+                            addOrShorten(out, in, tail, head, Math.toIntExact(viaNode));
+                        }
+                    }
+                }
+                for(int t = 0; t < touchedCount; t++) {
+                    witnessDistances[touched[t]] = UNREACHABLE;
+                }
+            }
+            return shortcuts;
+        }
+
+        // Dijkstra from source over uncontracted nodes other than the excluded one, returns how many were touched
+        int witnessSearch(int source, int excluded, long maxLength, int limit) {
+            int touchedCount = 0;
+            int settled = 0;
+            heap.clear();
+            witnessDistances[source] = 0;
+            touched[touchedCount++] = source;
+            heap.push(0, source);
+            while(!heap.isEmpty() && settled < limit) {
+                final long distance = heap.peekKey();
+                final int node = heap.pop();
+                if(distance > witnessDistances[node]) {
+                    continue;
+                }
+                if(distance > maxLength) {
+                    break;
+                }
+                settled++;
+                for(int i = 0; i < out.counts[node]; i++) {
+                    final int head = out.heads[node][i];
+                    if(head == excluded || contracted[head]) {
+                        continue;
+                    }
+                    final long headDistance = distance + out.lengths[node][i];
+                    if(headDistance < witnessDistances[head]) {
+                        if(witnessDistances[head] == UNREACHABLE) {
+                            touched[touchedCount++] = head;
+                        }
+                        witnessDistances[head] = headDistance;
+                        heap.push(headDistance, head);
+                    }
+                }
+            }
+            return touchedCount;
+        }
+    }
+
+    /**
+     * Dijkstra over one of the upward graphs, remembers every settled node with its distance.
+     */
+    private static final class Search {
+        final long[] distances;
+        int[] settled = new int[64];
+        long[] settledDistances = new long[64];
+        int settledCount;
+        final MinHeap heap = new MinHeap(64);
+
+        Search(int size) {
+            distances = new long[size];
+            Arrays.fill(distances, UNREACHABLE);
+        }
+
+        void run(int source, int[] firstArcs, int[] heads, int[] lengths) {
+            for(int i = 0; i < settledCount; i++) {
+                distances[settled[i]] = UNREACHABLE;
+            }
+            settledCount = 0;
+            heap.clear();
+            distances[source] = 0;
+            heap.push(0, source);
+            while(!heap.isEmpty()) {
+                final long distance = heap.peekKey();
+                final int node = heap.pop();
+                if(distance > distances[node]) {
+                    continue;
+                }
+                if(settledCount == settled.length) {
+                    settled = Arrays.copyOf(settled, settledCount * 2);
+                    settledDistances = Arrays.copyOf(settledDistances, settledCount * 2);
+                }
+                settled[settledCount] = node;
+                settledDistances[settledCount++] = distance;
+                for(int arc = firstArcs[node]; arc < firstArcs[node + 1]; arc++) {
+                    final int head = heads[arc];
+                    final long headDistance = distance + lengths[arc];
+                    if(headDistance < distances[head]) {
+                        distances[head] = headDistance;
+                        heap.push(headDistance, head);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of (long key, int value) without decrease-key, stale entries are skipped by the callers.
+     */
+    private static final class MinHeap {
+        long[] keys;
+        int[] values;
+        int size;
+
+        MinHeap(int capacity) {
+            keys = new long[Math.max(1, capacity)];
+            values = new int[Math.max(1, capacity)];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long peekKey() {
+            return keys[0];
+        }
+
+        void push(long key, int value) {
+            if(size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int position = size++;
+            while(position > 0) {
+                final int parent = (position - 1) / 2;
+                if(keys[parent] <= key) {
+                    break;
+                }
+                keys[position] = keys[parent];
+                values[position] = values[parent];
+                position = parent;
+            }
+            keys[position] = key;
+            values[position] = value;
+        }
+
+        int pop() {
+            final int top = values[0];
+            final long key = keys[--size];
+            final int value = values[size];
+            int position = 0;
+            while(true) {
+                int child = 2 * position + 1;
+                if(child >= size) {
+                    break;
+                }
+                if(child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if(keys[child] >= key) {
+                    break;
+                }
+                keys[position] = keys[child];
+                values[position] = values[child];
+                position = child;
+            }
+            if(size > 0) {
+                keys[position] = key;
+                values[position] = value;
+            }
+            return top;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package hr.ibelfinger.road;
+
+import hr.ibelfinger.LocationUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Directed road graph in compressed sparse row form: arcs of node u are at firstArc(u) until firstArc(u + 1).
+ * Arc lengths are in the distance units of LocationUtils, so road and straight line distances can be mixed.
+ */
+public class RoadGraph {
+    public static final double METRES_PER_DEGREE = 111_320;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] firstArcs;
+    private final int[] heads;
+    private final int[] lengths;
+
+    private RoadGraph(double[] latitudes, double[] longitudes, int[] firstArcs, int[] heads, int[] lengths) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstArcs = firstArcs;
+        this.heads = heads;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Builds the graph from arc lists, arcs don't have to be sorted.
+     */
+    public static RoadGraph of(double[] latitudes, double[] longitudes, int[] tails, int[] heads, int[] lengths) {
+        final int size = latitudes.length;
+        final int[] firstArcs = new int[size + 1];
+        for(int tail : tails) {
+            firstArcs[tail + 1]++;
+        }
+        for(int node = 0; node < size; node++) {
+            firstArcs[node + 1] += firstArcs[node];
+        }
+        final int[] next = Arrays.copyOf(firstArcs, size);
+        final int[] sortedHeads = new int[tails.length];
+        final int[] sortedLengths = new int[tails.length];
+        for(int arc = 0; arc < tails.length; arc++) {
+            final int position = next[tails[arc]]++;
+            sortedHeads[position] = heads[arc];
+            sortedLengths[position] = lengths[arc];
+        }
+        return new RoadGraph(latitudes, longitudes, firstArcs, sortedHeads, sortedLengths);
+    }
+
+    /**
+     * Reads a text graph file with one record per line, nodes numbered from 0:
+     * <pre>
+     * # comment
+     * v &lt;node&gt; &lt;latitude&gt; &lt;longitude&gt;
+     * a &lt;from node&gt; &lt;to node&gt; &lt;length in metres&gt;
+     * </pre>
+     * Two way streets are two arcs.
+     */
+    public static RoadGraph load(Path file) {
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        int size = 0;
+        int[] tails = new int[1024];
+        int[] heads = new int[1024];
+        int[] lengths = new int[1024];
+        int arcs = 0;
+        final double unitsPerMetre = LocationUtils.DISTANCE_PER_DEGREE / METRES_PER_DEGREE;
+
+        try(BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            int lineNumber = 0;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if(line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                final String[] fields = line.split("\\s+");
+                try {
+                    if(fields[0].equals("v") && fields.length == 4) {
+                        final int node = Integer.parseInt(fields[1]);
+                        if(node < 0) {
+                            throw new IllegalArgumentException("negative node");
+                        }
+                        if(node >= latitudes.length) {
+                            latitudes = Arrays.copyOf(latitudes, Math.max(node + 1, latitudes.length * 2));
+                            longitudes = Arrays.copyOf(longitudes, latitudes.length);
+                        }
+                        latitudes[node] = Double.parseDouble(fields[2]);
+                        longitudes[node] = Double.parseDouble(fields[3]);
+                        size = Math.max(size, node + 1);
+                    } else if(fields[0].equals("a") && fields.length == 4) {
+                        if(arcs == tails.length) {
+                            tails = Arrays.copyOf(tails, arcs * 2);
+                            heads = Arrays.copyOf(heads, arcs * 2);
+                            lengths = Arrays.copyOf(lengths, arcs * 2);
+                        }
+                        tails[arcs] = Integer.parseInt(fields[1]);
+                        heads[arcs] = Integer.parseInt(fields[2]);
+                        lengths[arcs] = (int) Math.round(Double.parseDouble(fields[3]) * unitsPerMetre);
+                        if(lengths[arcs] < 0) {
+                            throw new IllegalArgumentException("negative length");
+                        }
+                        arcs++;
+                    } else {
+                        throw new IllegalArgumentException("unknown record");
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException(file + ":" + lineNumber + " " + e.getMessage() + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        for(int arc = 0; arc < arcs; arc++) {
+            if(tails[arc] < 0 || tails[arc] >= size || heads[arc] < 0 || heads[arc] >= size) {
+                throw new IllegalStateException(file + " has an arc " + tails[arc] + " -> " + heads[arc]
+                        + " to a node without coordinates");
+            }
+        }
+        return of(Arrays.copyOf(latitudes, size), Arrays.copyOf(longitudes, size),
+                Arrays.copyOf(tails, arcs), Arrays.copyOf(heads, arcs), Arrays.copyOf(lengths, arcs));
+    }
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    public double getLatitude(int node) {
+        return latitudes[node];
+    }
+
+    public double getLongitude(int node) {
+        return longitudes[node];
+    }
+
+    public int firstArc(int node) {
+        return firstArcs[node];
+    }
+
+    public int head(int arc) {
+        return heads[arc];
+    }
+
+    public int length(int arc) {
+        return lengths[arc];
+    }
+}
@@ -0,0 +1,186 @@
+package hr.ibelfinger.road;
+
+import hr.ibelfinger.Location;
+import hr.ibelfinger.LocationStore;
+import hr.ibelfinger.distance.DistanceProvider;
+import hr.ibelfinger.distance.Fingerprint;
+import hr.ibelfinger.distance.StraightLineDistance;
+import hr.ibelfinger.spatial.GridIndex;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Road distances from a local graph file, without any external routing service. Locations snap to their
+ * nearest graph node and the straight line legs to and from it are added to the road distance between the nodes.
+ * Pairs with no road between them fall back to the straight line distance.
+ * <p>
+ * The contraction hierarchy is built once when the network is loaded. Matrix rows are computed as one many-to-many
+ * query over the distinct snapped nodes, so matrices are cheap enough to rebuild for every solve.
+ */
+public class RoadNetwork implements DistanceProvider {
+    private final RoadGraph graph;
+    private final ContractionHierarchy hierarchy;
+    private final GridIndex nodes;
+    private final StraightLineDistance straightLine = new StraightLineDistance();
+    private final String id;
+
+    public RoadNetwork(RoadGraph graph) {
+        this.graph = graph;
+        this.hierarchy = ContractionHierarchy.build(graph);
+        final double[] latitudes = new double[graph.size()];
+        final double[] longitudes = new double[graph.size()];
+        for(int node = 0; node < graph.size(); node++) {
+            latitudes[node] = graph.getLatitude(node);
+            longitudes[node] = graph.getLongitude(node);
+        }
+        this.nodes = GridIndex.of(latitudes, longitudes);
+        this.id = getClass().getName() + ":" + Long.toHexString(fingerprint(graph));
+    }
+
+    public static RoadNetwork load(Path file) {
+        return new RoadNetwork(RoadGraph.load(file));
+    }
+
+    public RoadGraph getGraph() {
+        return graph;
+    }
+
+    @Override
+    public long distance(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        final int from = snap(fromLatitude, fromLongitude);
+        final int to = snap(toLatitude, toLongitude);
+        final long roadDistance = hierarchy.distance(from, to);
+        if(roadDistance == ContractionHierarchy.UNREACHABLE) {
+            return straightLine.distance(fromLatitude, fromLongitude, toLatitude, toLongitude);
+        }
+        return accessDistance(fromLatitude, fromLongitude, from) + roadDistance
+                + accessDistance(toLatitude, toLongitude, to);
+    }
+
+    /**
+     * Class name and a fingerprint of the graph, so distances of one graph are never read back for another.
+     */
+    @Override
+    public String id() {
+        return id;
+    }
+
+    @Override
+    public boolean computesMatricesInBulk() {
+        return true;
+    }
+
+    /**
+     * One many-to-many query from the distinct snapped nodes of the from locations to those of all locations.
+     */
+    @Override
+    public void distanceRows(LocationStore locations, int[] fromIndices, RowConsumer consumer) {
+        final int size = locations.size();
+        // distinct snapped nodes of all locations, the depot has none
+        final int[] snapped = new int[size];
+        final long[] accessDistances = new long[size];
+        final int[] distinctOfNode = new int[graph.size()];
+        Arrays.fill(distinctOfNode, -1);
+        final int[] distinct = new int[size];
+        final int[] distinctOfLocations = new int[size];
+        int distinctCount = 0;
+        for(int i = 0; i < size; i++) {
+            if(locations.getLocationType(i) == Location.LocationType.DEPOT) {
+                distinctOfLocations[i] = -1;
+                continue;
+            }
+            snapped[i] = snap(locations.getLatitude(i), locations.getLongitude(i));
+            accessDistances[i] = accessDistance(locations.getLatitude(i), locations.getLongitude(i), snapped[i]);
+            if(distinctOfNode[snapped[i]] < 0) {
+                distinctOfNode[snapped[i]] = distinctCount;
+                distinct[distinctCount++] = snapped[i];
+            }
+            distinctOfLocations[i] = distinctOfNode[snapped[i]];
+        }
+        final int[] targets = Arrays.copyOf(distinct, distinctCount);
+
+        // distinct nodes of the from locations as sources, the from locations of each listed in fromsOfSources
+        final int[] sourceOfDistinct = new int[distinctCount];
+        Arrays.fill(sourceOfDistinct, -1);
+        final int[] sourceOfFroms = new int[fromIndices.length];
+        final int[] sources = new int[fromIndices.length];
+        int sourceCount = 0;
+        final int[] depotRow = new int[size];
+        for(int f = 0; f < fromIndices.length; f++) {
+            final int node = distinctOfLocations[fromIndices[f]];
+            if(node < 0) {
+                sourceOfFroms[f] = -1;
+                consumer.accept(fromIndices[f], depotRow);
+                continue;
+            }
+            if(sourceOfDistinct[node] < 0) {
+                sourceOfDistinct[node] = sourceCount;
+                sources[sourceCount++] = targets[node];
+            }
+            sourceOfFroms[f] = sourceOfDistinct[node];
+        }
+        final int[] firstFroms = new int[sourceCount + 1];
+        for(int f = 0; f < fromIndices.length; f++) {
+            if(sourceOfFroms[f] >= 0) {
+                firstFroms[sourceOfFroms[f] + 1]++;
+            }
+        }
+        for(int source = 0; source < sourceCount; source++) {
+            firstFroms[source + 1] += firstFroms[source];
+        }
+        final int[] fromsOfSources = new int[firstFroms[sourceCount]];
+        final int[] next = Arrays.copyOf(firstFroms, sourceCount);
+        for(int f = 0; f < fromIndices.length; f++) {
+            if(sourceOfFroms[f] >= 0) {
+                fromsOfSources[next[sourceOfFroms[f]]++] = fromIndices[f];
+            }
+        }
+
+        final ThreadLocal<int[]> rows = ThreadLocal.withInitial(() -> new int[size]);
+        hierarchy.manyToMany(Arrays.copyOf(sources, sourceCount), targets, (source, roadRow) -> {
+            final int[] row = rows.get();
+            for(int l = firstFroms[source]; l < firstFroms[source + 1]; l++) {
+                final int from = fromsOfSources[l];
+                for(int to = 0; to < size; to++) {
+                    if(to == from || distinctOfLocations[to] < 0) {
+                        row[to] = 0;
+                        continue;
+                    }
+                    final long roadDistance = roadRow[distinctOfLocations[to]];
+                    final long distance = roadDistance == ContractionHierarchy.UNREACHABLE
+                            ? straightLine.distance(locations.getLatitude(from), locations.getLongitude(from),
+                                    locations.getLatitude(to), locations.getLongitude(to))
+                            : accessDistances[from] + roadDistance + accessDistances[to];
+                    row[to] = Math.toIntExact(distance);
+                }
+                consumer.accept(from, row);
+            }
+        });
+    }
+
+    private static long fingerprint(RoadGraph graph) {
+        long hash = Fingerprint.EMPTY;
+        for(int node = 0; node < graph.size(); node++) {
+            hash = Fingerprint.add(hash, graph.getLatitude(node));
+            hash = Fingerprint.add(hash, graph.getLongitude(node));
+            for(int arc = graph.firstArc(node); arc < graph.firstArc(node + 1); arc++) {
+                hash = Fingerprint.add(hash, graph.head(arc));
+                hash = Fingerprint.add(hash, graph.length(arc));
+            }
+        }
+        return hash;
+    }
+
+    private int snap(double latitude, double longitude) {
+        final int[] nearest = new int[1];
+        if(nodes.nearest(latitude, longitude, 1, -1, nearest) == 0) {
+            throw new IllegalStateException("Road graph has no nodes");
+        }
+        return nearest[0];
+    }
+
+    private long accessDistance(double latitude, double longitude, int node) {
+        return straightLine.distance(latitude, longitude, graph.getLatitude(node), graph.getLongitude(node));
+    }
+}
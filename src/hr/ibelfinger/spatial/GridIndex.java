@@ -0,0 +1,299 @@
+package hr.ibelfinger.spatial;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Uniform grid over points in the plane for nearest neighbour and range queries by Manhattan distance, the same
+ * metric LocationUtils uses for straight line distances. Points are identified by non negative int ids and can be
+ * inserted, moved and removed at any time.
+ * <p>
+ * Cells are sized for a couple of points each, so a query only looks at the rings of cells around its own
+ * cell until no closer point can be left outside of them. Points outside of the grid area go to the border
+ * cells, queries stay exact but get slower the more points end up there.
+ * Not thread safe, concurrent readers are fine only while nobody updates.
+ */
+public class GridIndex {
+    private static final int POINTS_PER_CELL = 2;
+    private static final int ABSENT = -1;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[][] cells;
+    private final int[] cellSizes;
+
+    // per id, cellOfIds is ABSENT for ids not in the index
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private int[] cellOfIds = new int[0];
+    private int[] slotOfIds = new int[0];
+    private int size;
+
+    /**
+     * Empty index over the given area.
+     */
+    public GridIndex(double minX, double minY, double maxX, double maxY, double cellSize) {
+        if(!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size has to be positive, got " + cellSize);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = (int) Math.max(1, Math.ceil((maxX - minX) / cellSize));
+        this.rows = (int) Math.max(1, Math.ceil((maxY - minY) / cellSize));
+        this.cells = new int[columns * rows][];
+        this.cellSizes = new int[columns * rows];
+    }
+
+    public static GridIndex of(double[] xs, double[] ys) {
+        final int[] ids = new int[xs.length];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        return of(xs, ys, ids);
+    }
+
+    /**
+     * Indexes the given points, ids are their positions in the coordinate arrays.
+     * The grid covers exactly their bounding box.
+     */
+    public static GridIndex of(double[] xs, double[] ys, int[] ids) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for(int id : ids) {
+            minX = Math.min(minX, xs[id]);
+            minY = Math.min(minY, ys[id]);
+            maxX = Math.max(maxX, xs[id]);
+            maxY = Math.max(maxY, ys[id]);
+        }
+        if(ids.length == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        final GridIndex index = new GridIndex(minX, minY, maxX, maxY, cellSizeFor(maxX - minX, maxY - minY, ids.length));
+        index.ensureIdCapacity(xs.length);
+        for(int id : ids) {
+            index.insert(id, xs[id], ys[id]);
+        }
+        return index;
+    }
+
+    /**
+     * Cell size that gives a couple of points per cell when they are spread over the area, and never more
+     * cells along one side than there are points.
+     */
+    public static double cellSizeFor(double width, double height, int expectedPoints) {
+        final double targetCells = Math.max(1, expectedPoints / POINTS_PER_CELL);
+        final double cellSize = Math.max(Math.sqrt(width * height / targetCells), Math.max(width, height) / targetCells);
+        return cellSize > 0 ? cellSize : 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < cellOfIds.length && cellOfIds[id] != ABSENT;
+    }
+
+    public double getX(int id) {
+        return xs[id];
+    }
+
+    public double getY(int id) {
+        return ys[id];
+    }
+
+    /**
+     * Adds the point, or moves it if the id is already in the index.
+     */
+    public void insert(int id, double x, double y) {
+        if(id < 0) {
+            throw new IllegalArgumentException("Ids can't be negative, got " + id);
+        }
+        ensureIdCapacity(id + 1);
+        final int cell = cellOf(x, y);
+        if(cellOfIds[id] != ABSENT) {
+            if(cellOfIds[id] != cell) {
+                removeFromCell(id);
+                addToCell(cell, id);
+            }
+        } else {
+            addToCell(cell, id);
+            size++;
+        }
+        xs[id] = x;
+        ys[id] = y;
+    }
+
+    public void remove(int id) {
+        if(contains(id)) {
+            removeFromCell(id);
+            size--;
+        }
+    }
+
+    /**
+     * Writes up to k points nearest to (x, y) into result, closest first, and returns how many were written.
+     * The excluded point (usually the query point itself, -1 for none) is skipped.
+     */
+    public int nearest(double x, double y, int k, int excluded, int[] result) {
+        if(k <= 0) {
+            return 0;
+        }
+        // max-heap on distance, the root is the farthest of the current k
+        final double[] heapDistances = new double[k];
+        final int[] heapIds = new int[k];
+        int heapSize = 0;
+
+        final int column = column(x);
+        final int row = row(y);
+        final int maxRing = Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+        for(int ring = 0; ring <= maxRing; ring++) {
+            for(int cellRow = Math.max(0, row - ring); cellRow <= Math.min(rows - 1, row + ring); cellRow++) {
+                final boolean edgeRow = cellRow == row - ring || cellRow == row + ring;
+                final int step = edgeRow ? 1 : 2 * ring;
+                for(int cellColumn = column - ring; cellColumn <= column + ring; cellColumn += Math.max(1, step)) {
+                    if(cellColumn < 0 || cellColumn >= columns) {
+                        continue;
+                    }
+                    final int cell = cellRow * columns + cellColumn;
+                    final int[] points = cells[cell];
+                    for(int i = 0; i < cellSizes[cell]; i++) {
+                        final int id = points[i];
+                        if(id == excluded) {
+                            continue;
+                        }
+                        final double distance = Math.abs(xs[id] - x) + Math.abs(ys[id] - y);
+                        if(heapSize < k) {
+                            heapSize = siftUp(heapDistances, heapIds, heapSize, distance, id);
+                        } else if(distance < heapDistances[0]) {
+                            siftDown(heapDistances, heapIds, heapSize, distance, id);
+                        }
+                    }
+                }
+            }
+            // anything outside of this ring is at least ring cells away on one of the axes
+            if(heapSize == k && heapDistances[0] <= ring * cellSize) {
+                break;
+            }
+        }
+
+        for(int i = heapSize - 1; i >= 0; i--) {
+            result[i] = heapIds[0];
+            siftDown(heapDistances, heapIds, i, heapDistances[i], heapIds[i]);
+        }
+        return heapSize;
+    }
+
+    /**
+     * Calls the action for every point within the given Manhattan distance of (x, y), in no particular order.
+     */
+    public void forEachWithin(double x, double y, double distance, IntConsumer action) {
+        final int fromColumn = column(x - distance);
+        final int toColumn = column(x + distance);
+        final int fromRow = row(y - distance);
+        final int toRow = row(y + distance);
+        for(int cellRow = fromRow; cellRow <= toRow; cellRow++) {
+            for(int cellColumn = fromColumn; cellColumn <= toColumn; cellColumn++) {
+                final int cell = cellRow * columns + cellColumn;
+                final int[] points = cells[cell];
+                for(int i = 0; i < cellSizes[cell]; i++) {
+                    final int id = points[i];
+                    if(Math.abs(xs[id] - x) + Math.abs(ys[id] - y) <= distance) {
+                        action.accept(id);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int siftUp(double[] distances, int[] ids, int size, double distance, int id) {
+        int position = size;
+        while(position > 0) {
+            final int parent = (position - 1) / 2;
+            if(distances[parent] >= distance) {
+                break;
+            }
+            distances[position] = distances[parent];
+            ids[position] = ids[parent];
+            position = parent;
+        }
+        distances[position] = distance;
+        ids[position] = id;
+        return size + 1;
+    }
+
+    // replaces the root and restores the heap over the first size elements
+    private static void siftDown(double[] distances, int[] ids, int size, double distance, int id) {
+        int position = 0;
+        while(true) {
+            int child = 2 * position + 1;
+            if(child >= size) {
+                break;
+            }
+            if(child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if(distances[child] <= distance) {
+                break;
+            }
+            distances[position] = distances[child];
+            ids[position] = ids[child];
+            position = child;
+        }
+        if(size > 0) {
+            distances[position] = distance;
+            ids[position] = id;
+        }
+    }
+
+    private void ensureIdCapacity(int capacity) {
+        if(capacity > cellOfIds.length) {
+            final int newCapacity = Math.max(capacity, cellOfIds.length * 2);
+            final int oldCapacity = cellOfIds.length;
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            cellOfIds = Arrays.copyOf(cellOfIds, newCapacity);
+            slotOfIds = Arrays.copyOf(slotOfIds, newCapacity);
+            Arrays.fill(cellOfIds, oldCapacity, newCapacity, ABSENT);
+        }
+    }
+
+    private void addToCell(int cell, int id) {
+        int[] points = cells[cell];
+        if(points == null) {
+            points = cells[cell] = new int[POINTS_PER_CELL];
+        } else if(cellSizes[cell] == points.length) {
+            points = cells[cell] = Arrays.copyOf(points, points.length * 2);
+        }
+        slotOfIds[id] = cellSizes[cell];
+        cellOfIds[id] = cell;
+        points[cellSizes[cell]++] = id;
+    }
+
+    // last point of the cell takes the freed slot
+    private void removeFromCell(int id) {
+        final int cell = cellOfIds[id];
+        final int[] points = cells[cell];
+        final int last = points[--cellSizes[cell]];
+        points[slotOfIds[id]] = last;
+        slotOfIds[last] = slotOfIds[id];
+        cellOfIds[id] = ABSENT;
+    }
+
+    private int column(double x) {
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((x - minX) / cellSize)));
+    }
+
+    private int row(double y) {
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((y - minY) / cellSize)));
+    }
+
+    private int cellOf(double x, double y) {
+        return row(y) * columns + column(x);
+    }
+}
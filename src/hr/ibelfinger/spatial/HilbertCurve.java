@@ -0,0 +1,43 @@
+package hr.ibelfinger.spatial;
+
+/**
+ * Hilbert space filling curve over a square grid of 2^order by 2^order cells. Cells close along the curve are
+ * close in the plane, so sorting points by their position along it keeps neighbours together.
+ */
+public final class HilbertCurve {
+    // the side has to fit in an int
+    public static final int MAX_ORDER = 30;
+
+    private HilbertCurve() {
+    }
+
+    /**
+     * Position of the cell (x, y) along the curve, from 0 to 4^order - 1.
+     */
+    public static long index(int order, int x, int y) {
+        if(order < 1 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("Order has to be between 1 and " + MAX_ORDER + ", got " + order);
+        }
+        final int side = 1 << order;
+        if(x < 0 || x >= side || y < 0 || y >= side) {
+            throw new IllegalArgumentException("Cell (" + x + ", " + y + ") is outside of the grid of order " + order);
+        }
+        long index = 0;
+        for(int s = side >>> 1; s > 0; s >>>= 1) {
+            final int rx = (x & s) != 0 ? 1 : 0;
+            final int ry = (y & s) != 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant so the curve inside it starts and ends where the rest of the curve expects
+            if(ry == 0) {
+                if(rx == 1) {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                final int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+}